@@ -8,7 +8,10 @@ import ru.itmo.ctlab.virgo.gmwcs.graph.SimpleIO;
 import ru.itmo.ctlab.virgo.gmwcs.solver.BicomponentSolver;
 import ru.itmo.ctlab.virgo.sgmwcs.Signals;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.*;
+import ru.itmo.ctlab.virgo.sgmwcs.solver.AnnealingSolver;
 import ru.itmo.ctlab.virgo.sgmwcs.solver.ComponentSolver;
+import ru.itmo.ctlab.virgo.sgmwcs.solver.ExhaustiveSolver;
+import ru.itmo.ctlab.virgo.sgmwcs.solver.Solver;
 import ru.itmo.ctlab.virgo.sgmwcs.solver.Utils;
 
 import java.io.File;
@@ -73,11 +76,27 @@ public class Main {
                 .withRequiredArg().ofType(Integer.class).defaultsTo(0);
         optionParser.acceptsAll(asList("bm", "benchmark"), "Benchmark output file")
                 .withOptionalArg().defaultsTo("");
-        optionParser.acceptsAll(asList("pl", "preprocessing-level"), "Preprocessing level")
+        optionParser.acceptsAll(asList("pl", "preprocessing-level"), "Preprocessing level (3 - also npvk rule for SGMWCS)")
                 .withOptionalArg().ofType(Integer.class).defaultsTo(2);
         optionParser.acceptsAll(asList("o", "output-dir"), "Solver output directory")
                 .withOptionalArg().ofType(String.class);
+        optionParser.acceptsAll(asList("tw", "treewidth"),
+                "Maximum treewidth of components solved by dynamic programming (0 - off)")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(4);
+        optionParser.acceptsAll(asList("ex", "exhaustive"),
+                "Maximum number of edges of components solved by exhaustive search (at most "
+                        + ExhaustiveSolver.MAX_EDGES + ")")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(16);
+        optionParser.acceptsAll(asList("sep", "separator"),
+                "Maximum size of vertex separators splitting 2-connected SGMWCS components (0 - off)")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(0);
         optionParser.accepts("mst", "Use primal heuristic only");
+        optionParser.accepts("sa", "Use simulated annealing only for the time limit ("
+                + (int) AnnealingSolver.DEFAULT_TIME + " seconds if unlimited)");
+        optionParser.acceptsAll(asList("ri", "report-interval"),
+                "Interval in seconds between reports of the best solution for -mst with a time limit")
+                .withRequiredArg().ofType(Double.class).defaultsTo(10.0);
+        optionParser.accepts("write-best", "Write the best solution on every report for -mst");
         if (optionSet.has("h")) {
             optionParser.printHelpOn(System.out);
             System.exit(0);
@@ -114,7 +133,13 @@ public class Main {
         double edgePenalty = (Double) optionSet.valueOf("p");
         int logLevel = (Integer) optionSet.valueOf("l");
         int preprocessLevel = (Integer) optionSet.valueOf("pl");
-        boolean heuristicOnly = optionSet.has("mst");
+        int treewidth = (Integer) optionSet.valueOf("tw");
+        int exhaustive = (Integer) optionSet.valueOf("ex");
+        int separator = (Integer) optionSet.valueOf("sep");
+        boolean annealing = optionSet.has("sa");
+        boolean heuristicOnly = optionSet.has("mst") || annealing;
+        double reportInterval = (Double) optionSet.valueOf("ri");
+        boolean writeBest = optionSet.has("write-best");
         if (!heuristicOnly) {
             checkCplex();
         }
@@ -144,6 +169,9 @@ public class Main {
             solver.setLogLevel(logLevel);
             solver.setPreprocessingLevel(preprocessLevel);
             solver.setCplexOff(heuristicOnly);
+            solver.setTreewidthThreshold(treewidth);
+            solver.setExhaustiveThreshold(exhaustive);
+            solver.setSeparatorSize(separator);
             GraphIO graphIO = new GraphIO(nodeFile, edgeFile, signalFile, outDir);
             try {
                 Graph graph = graphIO.read();
@@ -151,9 +179,38 @@ public class Main {
                         graph.edgeSet().size() + " edges and " +
                         graph.vertexSet().size() + " nodes");
                 Signals signals = graphIO.getSignals();
-                List<Unit> units = solver.solve(graph, signals);
+                solver.setReportInterval(reportInterval);
+                solver.setIncumbentListener(best -> {
+                    printBest(before, Utils.sum(best, signals));
+                    if (writeBest) {
+                        try {
+                            graphIO.write(best);
+                        } catch (IOException e) {
+                            System.err.println("Failed to write the best solution");
+                        }
+                    }
+                });
+                List<Unit> units;
+                Solver used;
+                int prepNodes, prepEdges;
+                if (annealing) {
+                    AnnealingSolver annealingSolver = new AnnealingSolver();
+                    annealingSolver.setThreadsNum(threads);
+                    annealingSolver.setTimeLimit(tl);
+                    annealingSolver.setLogLevel(logLevel);
+                    annealingSolver.setPreprocessingLevel(preprocessLevel);
+                    units = annealingSolver.solve(graph, signals);
+                    prepNodes = annealingSolver.preprocessedNodes();
+                    prepEdges = annealingSolver.preprocessedEdges();
+                    used = annealingSolver;
+                } else {
+                    units = solver.solve(graph, signals);
+                    prepNodes = solver.preprocessedNodes();
+                    prepEdges = solver.preprocessedEdges();
+                    used = solver;
+                }
                 long now = System.currentTimeMillis();
-                if (solver.isSolvedToOptimality()) {
+                if (used.isSolvedToOptimality()) {
                     System.out.println("SOLVED TO OPTIMALITY");
                 }
                 double sum = Utils.sum(units, signals);
@@ -176,8 +233,7 @@ public class Main {
                                 solGraph, signals
                         ).toTSV(outDir + "/" + "nodes-sol.tsv", outDir + "/" + "edges-sol.tsv");
                     printStats(
-                            solver.isSolvedToOptimality() ? 1 : 0,
-                            solver.preprocessedNodes(), solver.preprocessedEdges(),
+                            used.isSolvedToOptimality() ? 1 : 0, prepNodes, prepEdges,
                             solGraph.vertexSet().size(), solGraph.edgeSet().size(), timeConsumed, statsFile,
                             nodeFile.getAbsolutePath(), edgeFile.getAbsolutePath(), signalFile.getAbsolutePath()
                     );
@@ -207,9 +263,29 @@ public class Main {
                 if (edgePenalty > 0) {
                     graph.edgeSet().forEach(e -> e.setWeight(e.getWeight() - edgePenalty));
                 }
-                if (heuristicOnly) {
+                if (annealing) {
                     setThreads(threads);
-                    units = extract(TreeSolverKt.solveComponents(graph));
+                    ru.itmo.ctlab.virgo.gmwcs.solver.AnnealingSolver solver =
+                            new ru.itmo.ctlab.virgo.gmwcs.solver.AnnealingSolver();
+                    if (logLevel < 2) {
+                        solver.suppressOutput();
+                    }
+                    solver.setThreadsNum(threads);
+                    solver.setTimeLimit(tl);
+                    units = solver.solve(graph);
+                } else if (heuristicOnly) {
+                    setThreads(threads);
+                    units = extract(TreeSolverKt.solveComponents(graph, threads, tl, reportInterval, best -> {
+                        List<Elem> elems = extract(best);
+                        printBest(before, elems.stream().mapToDouble(Elem::getWeight).sum());
+                        if (writeBest) {
+                            try {
+                                graphIO.write(elems);
+                            } catch (IOException e) {
+                                System.err.println("Failed to write the best solution");
+                            }
+                        }
+                    }));
                     units.forEach(Elem::clear);
                 } else {
                     BicomponentSolver solver = new BicomponentSolver();
@@ -218,9 +294,8 @@ public class Main {
                     }
                     setLogLevel(logLevel);
                     solver.setThreadsNum(threads);
-                    solver.setUnrootedTL(tl);
-                    solver.setRootedTL(tl.subLimit(0.7));
-                    solver.setTLForBiggest(tl);
+                    solver.setTimeLimit(tl);
+                    solver.setTreewidthThreshold(treewidth);
                     units = solver.solve(graph);
                     toOpt = solver.isSolvedToOptimality();
                     prepEdges = solver.preprocessedEdges();
@@ -255,6 +330,10 @@ public class Main {
         }
     }
 
+    private static void printBest(long before, double score) {
+        System.out.println("time:" + (System.currentTimeMillis() - before) + " best:" + score);
+    }
+
     private static void printStats(int isOpt, int prepNodes, int prepEdges, int solNodes, int solEdges,
                                    long timeConsumed, String fileName,
                                    String nodesFile, String edgesFile, String signalsFile) {
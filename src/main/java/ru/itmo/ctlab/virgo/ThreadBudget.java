@@ -0,0 +1,43 @@
+package ru.itmo.ctlab.virgo;
+
+/**
+ * Splits threads between tasks solved in parallel and the solvers they run.
+ * Every registered task not finished yet is assumed to occupy a thread of its own,
+ * so while there are more tasks than threads each solver is given a single one.
+ * Threads left idle by finished tasks are granted to the solvers started later,
+ * so the last remaining task gets all of them.
+ */
+public class ThreadBudget {
+    private final int threads;
+    private int pending;
+    private int granted;
+
+    public ThreadBudget(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+    }
+
+    public synchronized void register() {
+        pending++;
+    }
+
+    public synchronized void unregister() {
+        pending = Math.max(0, pending - 1);
+    }
+
+    /**
+     * @return number of threads for a solver of a registered task, at least one.
+     * They must be given back by {@link #release(int)} when the solver stops.
+     */
+    public synchronized int acquire() {
+        int extra = Math.max(0, threads - Math.max(pending, 1) - granted);
+        granted += extra;
+        return 1 + extra;
+    }
+
+    public synchronized void release(int acquired) {
+        granted = Math.max(0, granted - (acquired - 1));
+    }
+}
@@ -1,36 +1,126 @@
 package ru.itmo.ctlab.virgo;
 
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Deadline in terms of {@link System#nanoTime()} fixed when the limit is created,
+ * so the remaining time decreases by itself and the limit may be shared by threads.
+ * Sub-limits never end later than their parent and are cancelled with it.
+ * Listeners are notified once when the limit is cancelled.
+ */
 public class TimeLimit {
-    private double tl;
-    private TimeLimit parent;
+    private final long deadline;
+    private final TimeLimit parent;
+    private volatile boolean cancelled;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final Set<TimeLimit> children = Collections.newSetFromMap(new WeakHashMap<>());
 
+    /**
+     * @param tl seconds from now, may be infinite.
+     */
     public TimeLimit(double tl) {
-        if (tl < 0) {
+        this(null, tl);
+    }
+
+    private TimeLimit(TimeLimit parent, double tl) {
+        if (tl < 0 || Double.isNaN(tl)) {
             throw new IllegalArgumentException();
         }
-        this.tl = tl;
+        this.parent = parent;
+        long end = tl == Double.POSITIVE_INFINITY ? Long.MAX_VALUE : deadlineAfter(tl);
+        if (parent != null) {
+            end = Math.min(end, parent.deadline);
+            synchronized (parent.children) {
+                parent.children.add(this);
+            }
+            cancelled = parent.isCancelled();
+        }
+        deadline = end;
+    }
+
+    private static long deadlineAfter(double seconds) {
+        long now = System.nanoTime();
+        long nanos = (long) Math.min(seconds * 1e9, Long.MAX_VALUE - now - 1);
+        return now + nanos;
     }
 
-    private TimeLimit(TimeLimit parent, double fraction) {
+    /**
+     * @return limit ending after <code>fraction</code> of the remaining time.
+     */
+    public TimeLimit subLimit(double fraction) {
         if (fraction < 0.0 || fraction > 1.0) {
             throw new IllegalArgumentException();
         }
-        this.parent = parent;
-        tl = parent.getRemainingTime() * fraction;
+        return new TimeLimit(this, fraction == 0.0 ? 0.0 : getRemainingTime() * fraction);
     }
 
-    public void spend(double time) {
-        tl -= time;
-        if (parent != null) {
-            parent.spend(time);
+    /**
+     * @return limit ending in <code>seconds</code> or at the deadline of this one if it is earlier.
+     */
+    public TimeLimit capped(double seconds) {
+        return new TimeLimit(this, Math.max(seconds, 0.0));
+    }
+
+    /**
+     * @return seconds left, 0 if the limit is over or cancelled.
+     */
+    public double getRemainingTime() {
+        if (isCancelled()) {
+            return 0.0;
+        }
+        if (deadline == Long.MAX_VALUE) {
+            return Double.POSITIVE_INFINITY;
         }
+        return Math.max(0.0, (deadline - System.nanoTime()) / 1e9);
     }
 
-    public TimeLimit subLimit(double fraction) {
-        return new TimeLimit(this, fraction);
+    /**
+     * @return deadline as {@link System#nanoTime()} or {@link Long#MAX_VALUE} if there is none.
+     */
+    public long getDeadline() {
+        return deadline;
     }
 
-    public double getRemainingTime() {
-        return tl;
+    public boolean isOver() {
+        return getRemainingTime() <= 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Makes the limit and its sub-limits over and notifies their listeners.
+     */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        for (Runnable listener : listeners) {
+            if (listeners.remove(listener)) {
+                listener.run();
+            }
+        }
+        List<TimeLimit> subLimits;
+        synchronized (children) {
+            subLimits = new ArrayList<>(children);
+        }
+        subLimits.forEach(TimeLimit::cancel);
+    }
+
+    /**
+     * Adds a listener called on cancellation, immediately if the limit is already cancelled.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+        if (cancelled && listeners.remove(listener)) {
+            listener.run();
+        }
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
     }
-}
\ No newline at end of file
+}
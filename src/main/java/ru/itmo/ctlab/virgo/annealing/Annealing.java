@@ -0,0 +1,137 @@
+package ru.itmo.ctlab.virgo.annealing;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Simulated annealing for finding connected subgraphs of maximum score.
+ * Each thread runs an island which repeats cooling cycles. After a cycle
+ * the island publishes its best solution and continues from the best
+ * solution among all islands.
+ */
+public class Annealing {
+    private static final long SEED = 1337;
+    private static final int CYCLES = 8;
+    private static final double MIN_CYCLE = 0.5;
+
+    private final Instance instance;
+    private int threads = 1;
+
+    public Annealing(Instance instance) {
+        this.instance = instance;
+    }
+
+    public void setThreadsNum(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Runs islands until <code>tl</code> is over or cancelled, so the limit must be finite.
+     *
+     * @return the best solution found or the empty one if no subgraph has positive score.
+     */
+    public Solution solve(TimeLimit tl) {
+        if (tl.getDeadline() == Long.MAX_VALUE) {
+            throw new IllegalArgumentException();
+        }
+        long deadline = tl.getDeadline();
+        long cycle = (long) (Math.max(MIN_CYCLE, tl.getRemainingTime() / CYCLES) * 1e9);
+        // the start of an island counts even if its thread is late for the deadline
+        return run((island, exchange) -> {
+            do {
+                island.anneal(Math.min(deadline, System.nanoTime() + cycle), tl);
+                exchange.run();
+            } while (!tl.isOver());
+        });
+    }
+
+    /**
+     * Runs every island for {@link #CYCLES} cycles of <code>steps</code> moves regardless
+     * of time, so a single island finds the same solution on every run.
+     *
+     * @return the best solution found or the empty one if no subgraph has positive score.
+     */
+    public Solution solve(long steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException();
+        }
+        return run((island, exchange) -> {
+            for (int i = 0; i < CYCLES; i++) {
+                island.anneal(steps);
+                exchange.run();
+            }
+        });
+    }
+
+    private Solution run(Schedule schedule) {
+        Solution empty = new Solution(0, new int[0], new int[0]);
+        if (instance.n == 0) {
+            return empty;
+        }
+        AtomicReference<Solution> best = new AtomicReference<>(empty);
+        int heaviest = 0;
+        double[] own = new double[instance.n];
+        for (int v = 0; v < instance.n; v++) {
+            for (int s : instance.unitSignals[v]) {
+                own[v] += instance.weights[s];
+            }
+            if (own[v] > own[heaviest]) {
+                heaviest = v;
+            }
+        }
+        Random random = new Random(SEED);
+        List<Island> islands = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int start = i == 0 ? heaviest : random.nextInt(instance.n);
+            islands.add(new Island(instance, SEED + i, start));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Island island : islands) {
+            futures.add(executor.submit(() -> schedule.run(island, () -> {
+                Solution global = best.accumulateAndGet(island.best(), (a, b) -> a.score >= b.score ? a : b);
+                island.load(global.vertices.length > 0 ? global : island.best());
+            })));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        return best.get();
+    }
+
+    /**
+     * Cooling cycles of an island, which must call <code>exchange</code> after each of them
+     * to publish its best solution and continue from the best one among all islands.
+     */
+    private interface Schedule {
+        void run(Island island, Runnable exchange);
+    }
+
+    /**
+     * Connected subgraph given by indices of vertices and edges of {@link Instance}.
+     */
+    public static class Solution {
+        public final double score;
+        public final int[] vertices;
+        public final int[] edges;
+
+        Solution(double score, int[] vertices, int[] edges) {
+            this.score = score;
+            this.vertices = vertices;
+            this.edges = edges;
+        }
+    }
+}
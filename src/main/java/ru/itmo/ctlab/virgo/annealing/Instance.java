@@ -0,0 +1,58 @@
+package ru.itmo.ctlab.virgo.annealing;
+
+/**
+ * Compact representation of a problem for {@link Annealing}.
+ * Units are vertices <code>0..n-1</code> and edges <code>n..n+m-1</code>.
+ * Score of a subgraph is the total weight of distinct signals of its units,
+ * so GMWCS and MWCS instances are the ones with a signal per unit.
+ */
+public class Instance {
+    final int n;
+    final int m;
+    final int[] from;
+    final int[] to;
+    final int[][] incident;
+    final int[][] unitSignals;
+    final double[] weights;
+
+    /**
+     * @param n           number of vertices.
+     * @param from        first ends of edges.
+     * @param to          second ends of edges.
+     * @param unitSignals signals of vertices followed by signals of edges.
+     * @param weights     weights of signals.
+     */
+    public Instance(int n, int[] from, int[] to, int[][] unitSignals, double[] weights) {
+        if (from.length != to.length || unitSignals.length != n + from.length) {
+            throw new IllegalArgumentException();
+        }
+        this.n = n;
+        this.m = from.length;
+        this.from = from;
+        this.to = to;
+        this.unitSignals = unitSignals;
+        this.weights = weights;
+        int[] degree = new int[n];
+        for (int e = 0; e < m; e++) {
+            degree[from[e]]++;
+            if (to[e] != from[e]) {
+                degree[to[e]]++;
+            }
+        }
+        incident = new int[n][];
+        for (int v = 0; v < n; v++) {
+            incident[v] = new int[degree[v]];
+            degree[v] = 0;
+        }
+        for (int e = 0; e < m; e++) {
+            incident[from[e]][degree[from[e]]++] = e;
+            if (to[e] != from[e]) {
+                incident[to[e]][degree[to[e]]++] = e;
+            }
+        }
+    }
+
+    int opposite(int v, int e) {
+        return from[e] == v ? to[e] : from[e];
+    }
+}
@@ -0,0 +1,316 @@
+package ru.itmo.ctlab.virgo.annealing;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Simulated annealing over connected subgraphs run by a single thread.
+ * The state is a set of vertices with a set of edges spanning them.
+ * Moves keep the edge set connected: a vertex is removed only if it is not
+ * an articulation point of the chosen edges and an edge only if it is not a bridge.
+ */
+class Island {
+    private static final double EPS = 1e-9;
+    private static final double COOLING = 1e-4;
+    private static final int CHECK_PERIOD = 256;
+
+    private final Instance in;
+    private final Random random;
+    private final double t0;
+
+    private final boolean[] inE;
+    private final int[] degree;
+    private final int[] refs;
+    private final int[] vertices;
+    private final int[] position;
+    private int size;
+    private double score;
+
+    private final int[] mark;
+    private final int[] want;
+    private final int[] targets;
+    private final int[] bfs;
+    private int stamp;
+
+    private double bestScore = Double.NEGATIVE_INFINITY;
+    private int[] bestVertices;
+    private int[] bestEdges;
+
+    Island(Instance in, long seed, int start) {
+        this.in = in;
+        this.random = new Random(seed);
+        inE = new boolean[in.m];
+        degree = new int[in.n];
+        refs = new int[in.weights.length];
+        vertices = new int[in.n];
+        position = new int[in.n];
+        Arrays.fill(position, -1);
+        mark = new int[in.n];
+        want = new int[in.n];
+        targets = new int[in.n];
+        bfs = new int[in.n];
+        double sum = 0;
+        int count = 0;
+        for (double w : in.weights) {
+            if (w != 0) {
+                sum += Math.abs(w);
+                count++;
+            }
+        }
+        t0 = count == 0 ? 1.0 : sum / count;
+        addVertex(start);
+        saveBest();
+    }
+
+    double bestScore() {
+        return bestScore;
+    }
+
+    Annealing.Solution best() {
+        return new Annealing.Solution(bestScore, bestVertices, bestEdges);
+    }
+
+    /**
+     * Cools down from the initial temperature until <code>end</code>
+     * (in terms of {@link System#nanoTime()}) or cancellation of <code>tl</code>.
+     */
+    void anneal(long end, TimeLimit tl) {
+        long start = System.nanoTime();
+        double t = t0;
+        for (long it = 0; ; it++) {
+            if (it % CHECK_PERIOD == 0) {
+                long now = System.nanoTime();
+                if (now >= end || tl.isCancelled()) {
+                    return;
+                }
+                t = t0 * Math.pow(COOLING, (double) (now - start) / (end - start));
+            }
+            step(t);
+        }
+    }
+
+    /**
+     * Cools down from the initial temperature in <code>steps</code> moves.
+     */
+    void anneal(long steps) {
+        double t = t0;
+        for (long it = 0; it < steps; it++) {
+            if (it % CHECK_PERIOD == 0) {
+                t = t0 * Math.pow(COOLING, (double) it / steps);
+            }
+            step(t);
+        }
+    }
+
+    /**
+     * Replaces current state by <code>s</code>.
+     */
+    void load(Annealing.Solution s) {
+        while (size > 0) {
+            int v = vertices[size - 1];
+            for (int e : in.incident[v]) {
+                if (inE[e]) {
+                    removeEdge(e);
+                }
+            }
+            removeVertex(v);
+        }
+        for (int v : s.vertices) {
+            addVertex(v);
+        }
+        for (int e : s.edges) {
+            addEdge(e);
+        }
+        if (s.score > bestScore) {
+            saveBest();
+        }
+    }
+
+    private void step(double t) {
+        int u = vertices[random.nextInt(size)];
+        int[] inc = in.incident[u];
+        int kind = random.nextInt(4);
+        if (kind == 2) {
+            removeVertexMove(u, t);
+            return;
+        }
+        if (inc.length == 0) {
+            return;
+        }
+        int e = inc[random.nextInt(inc.length)];
+        int v = in.opposite(u, e);
+        if (kind == 3) {
+            if (inE[e]) {
+                removeEdgeMove(u, v, e, t);
+            }
+        } else if (position[v] < 0) {
+            double before = score;
+            addVertex(v);
+            addEdge(e);
+            if (!accept(before, t)) {
+                removeEdge(e);
+                removeVertex(v);
+            }
+        } else if (!inE[e]) {
+            double before = score;
+            addEdge(e);
+            if (!accept(before, t)) {
+                removeEdge(e);
+            }
+        }
+    }
+
+    private void removeVertexMove(int u, double t) {
+        if (size == 1) {
+            return;
+        }
+        int[] inc = in.incident[u];
+        int count = 0;
+        stamp++;
+        for (int e : inc) {
+            if (inE[e]) {
+                int v = in.opposite(u, e);
+                if (v != u && want[v] != stamp) {
+                    want[v] = stamp;
+                    targets[count++] = v;
+                }
+            }
+        }
+        if (count > 1 && !connected(targets[0], count, u, -1)) {
+            return;
+        }
+        double before = score;
+        int removed = 0;
+        int[] edges = new int[degree[u]];
+        for (int e : inc) {
+            if (inE[e]) {
+                edges[removed++] = e;
+                removeEdge(e);
+            }
+        }
+        removeVertex(u);
+        if (!accept(before, t)) {
+            addVertex(u);
+            for (int i = 0; i < removed; i++) {
+                addEdge(edges[i]);
+            }
+        }
+    }
+
+    private void removeEdgeMove(int u, int v, int e, double t) {
+        if (u != v) {
+            if (degree[u] == 1 || degree[v] == 1) {
+                return;
+            }
+            stamp++;
+            want[v] = stamp;
+            if (!connected(u, 1, -1, e)) {
+                return;
+            }
+        }
+        double before = score;
+        removeEdge(e);
+        if (!accept(before, t)) {
+            addEdge(e);
+        }
+    }
+
+    /**
+     * Checks that <code>count</code> vertices marked in <code>want</code> are reachable
+     * from <code>from</code> by chosen edges avoiding vertex <code>skipV</code> and edge
+     * <code>skipE</code>. Search stops as soon as all of them are found.
+     */
+    private boolean connected(int from, int count, int skipV, int skipE) {
+        int head = 0, tail = 0, found = 0;
+        mark[from] = stamp;
+        if (want[from] == stamp) {
+            found++;
+        }
+        bfs[tail++] = from;
+        while (head < tail) {
+            int x = bfs[head++];
+            for (int e : in.incident[x]) {
+                if (!inE[e] || e == skipE) {
+                    continue;
+                }
+                int y = in.opposite(x, e);
+                if (y == skipV || mark[y] == stamp) {
+                    continue;
+                }
+                mark[y] = stamp;
+                if (want[y] == stamp && ++found == count) {
+                    return true;
+                }
+                bfs[tail++] = y;
+            }
+        }
+        return found == count;
+    }
+
+    private boolean accept(double before, double t) {
+        double delta = score - before;
+        if (delta < 0 && random.nextDouble() >= Math.exp(delta / t)) {
+            return false;
+        }
+        if (score > bestScore + EPS) {
+            saveBest();
+        }
+        return true;
+    }
+
+    private void saveBest() {
+        bestScore = score;
+        bestVertices = Arrays.copyOf(vertices, size);
+        int[] edges = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            for (int e : in.incident[vertices[i]]) {
+                if (inE[e] && (in.from[e] == vertices[i])) {
+                    if (count == edges.length) {
+                        edges = Arrays.copyOf(edges, 2 * count);
+                    }
+                    edges[count++] = e;
+                }
+            }
+        }
+        bestEdges = Arrays.copyOf(edges, count);
+    }
+
+    private void addVertex(int v) {
+        position[v] = size;
+        vertices[size++] = v;
+        apply(v, true);
+    }
+
+    private void removeVertex(int v) {
+        int last = vertices[--size];
+        vertices[position[v]] = last;
+        position[last] = position[v];
+        position[v] = -1;
+        apply(v, false);
+    }
+
+    private void addEdge(int e) {
+        inE[e] = true;
+        degree[in.from[e]]++;
+        degree[in.to[e]]++;
+        apply(in.n + e, true);
+    }
+
+    private void removeEdge(int e) {
+        inE[e] = false;
+        degree[in.from[e]]--;
+        degree[in.to[e]]--;
+        apply(in.n + e, false);
+    }
+
+    private void apply(int unit, boolean add) {
+        for (int s : in.unitSignals[unit]) {
+            if (add ? refs[s]++ == 0 : --refs[s] == 0) {
+                score += add ? in.weights[s] : -in.weights[s];
+            }
+        }
+    }
+}
@@ -7,12 +7,14 @@ public class Graph {
     private Map<Node, Map<Node, LinksList>> connected;
     private Map<Node, LinksList> adj;
     private Map<Node, Integer> degree;
+    private List<Set<Node>> buckets;
 
     public Graph() {
         links = new LinkedHashMap<>();
         adj = new LinkedHashMap<>();
         connected = new HashMap<>();
         degree = new HashMap<>();
+        buckets = new ArrayList<>();
     }
 
     public void addVertex(Node v) {
@@ -21,7 +23,7 @@ public class Graph {
         }
         adj.put(v, new LinksList());
         connected.put(v, new LinkedHashMap<>());
-        degree.put(v, 0);
+        setDegree(v, 0);
     }
 
     public void addEdge(Node v, Node u, Edge e) {
@@ -34,8 +36,8 @@ public class Graph {
         adj.get(u).add(link);
         addToConnected(v, u, link);
         addToConnected(u, v, link);
-        degree.put(v, degree.get(v) + 1);
-        degree.put(u, degree.get(u) + 1);
+        setDegree(v, degree.get(v) + 1);
+        setDegree(u, degree.get(u) + 1);
     }
 
     public Set<Edge> edgesOf(Node v) {
@@ -82,6 +84,7 @@ public class Graph {
         }
         adj.remove(v);
         connected.remove(v);
+        buckets.get(degree.remove(v)).remove(v);
     }
 
     public List<Edge> getAllEdges(Node v, Node u) {
@@ -117,8 +120,8 @@ public class Graph {
         Link l = links.get(e);
         links.remove(e);
         l.removed = true;
-        degree.put(l.v, degree.get(l.v) - 1);
-        degree.put(l.u, degree.get(l.u) - 1);
+        setDegree(l.v, degree.get(l.v) - 1);
+        setDegree(l.u, degree.get(l.u) - 1);
     }
 
     public Set<Node> vertexSet() {
@@ -195,6 +198,28 @@ public class Graph {
         return degree.get(v);
     }
 
+    /**
+     * @return live view of vertices with exactly <code>d</code> incident edges.
+     * Callers that modify the graph while iterating should take a copy.
+     */
+    public Set<Node> verticesOfDegree(int d) {
+        if (d >= buckets.size()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(buckets.get(d));
+    }
+
+    private void setDegree(Node v, int d) {
+        Integer old = degree.put(v, d);
+        if (old != null) {
+            buckets.get(old).remove(v);
+        }
+        while (buckets.size() <= d) {
+            buckets.add(new LinkedHashSet<>());
+        }
+        buckets.get(d).add(v);
+    }
+
     public boolean containsVertex(Node v) {
         return adj.containsKey(v);
     }
@@ -0,0 +1,117 @@
+package ru.itmo.ctlab.virgo.gmwcs.solver;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+import ru.itmo.ctlab.virgo.annealing.Annealing;
+import ru.itmo.ctlab.virgo.annealing.Instance;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Elem;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Node;
+
+import java.util.*;
+
+import static ru.itmo.ctlab.gmwcs.solver.preprocessing.PreprocessorKt.preprocess;
+import static ru.itmo.ctlab.virgo.gmwcs.graph.Elem.extract;
+
+/**
+ * Heuristic solver which runs {@link Annealing} on the preprocessed graph
+ * for the whole time limit or for {@link #DEFAULT_TIME} seconds if there is none.
+ * Cancellation of the limit stops it after the current moves.
+ * Every vertex and edge is a signal of its own weight.
+ */
+public class AnnealingSolver implements Solver {
+    public static final double DEFAULT_TIME = 60.0;
+
+    private TimeLimit tl;
+    private int threads;
+    private long steps;
+    private boolean silence;
+
+    public AnnealingSolver() {
+        tl = new TimeLimit(Double.POSITIVE_INFINITY);
+        threads = 1;
+    }
+
+    @Override
+    public List<Elem> solve(Graph graph) {
+        TimeLimit limit = tl.getDeadline() == Long.MAX_VALUE ? tl.capped(DEFAULT_TIME) : tl;
+        Set<Elem> units = graph.elemSet();
+        graph = graph.subgraph(graph.vertexSet());
+        preprocess(graph);
+        List<Node> nodes = new ArrayList<>(graph.vertexSet());
+        List<Edge> edges = new ArrayList<>(graph.edgeSet());
+        Map<Node, Integer> index = new HashMap<>();
+        for (Node v : nodes) {
+            index.put(v, index.size());
+        }
+        int[] from = new int[edges.size()], to = new int[edges.size()];
+        int[][] unitSignals = new int[nodes.size() + edges.size()][];
+        double[] weights = new double[nodes.size() + edges.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            unitSignals[i] = new int[]{i};
+            weights[i] = nodes.get(i).getWeight();
+        }
+        for (int i = 0; i < edges.size(); i++) {
+            Edge e = edges.get(i);
+            from[i] = index.get(graph.getEdgeSource(e));
+            to[i] = index.get(graph.getEdgeTarget(e));
+            unitSignals[nodes.size() + i] = new int[]{nodes.size() + i};
+            weights[nodes.size() + i] = e.getWeight();
+        }
+        Annealing annealing = new Annealing(new Instance(nodes.size(), from, to, unitSignals, weights));
+        annealing.setThreadsNum(threads);
+        Annealing.Solution solution = steps > 0 ? annealing.solve(steps) : annealing.solve(limit);
+        if (!silence) {
+            System.out.println("Simulated annealing found " + solution.score);
+        }
+        List<Elem> best = new ArrayList<>();
+        for (int v : solution.vertices) {
+            best.add(nodes.get(v));
+        }
+        for (int e : solution.edges) {
+            best.add(edges.get(e));
+        }
+        List<Elem> result = extract(best);
+        // units removed by preprocessing may still hold absorbed ones
+        units.forEach(Elem::clear);
+        return result;
+    }
+
+    @Override
+    public void setTimeLimit(TimeLimit tl) {
+        this.tl = tl;
+    }
+
+    @Override
+    public boolean isSolvedToOptimality() {
+        return false;
+    }
+
+    @Override
+    public void suppressOutput() {
+        silence = true;
+    }
+
+    @Override
+    public void setLB(double lb) {
+        // Lower bound doesn't restrict the search
+    }
+
+    /**
+     * Makes every island run a fixed number of cooling cycles of <code>steps</code> moves
+     * instead of using the time limit, 0 turns it off. See {@link Annealing#solve(long)}.
+     */
+    public void setSteps(long steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.steps = steps;
+    }
+
+    public void setThreadsNum(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException();
+        }
+        threads = n;
+    }
+}
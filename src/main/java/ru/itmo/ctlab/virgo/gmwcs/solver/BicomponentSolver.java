@@ -3,6 +3,7 @@ package ru.itmo.ctlab.virgo.gmwcs.solver;
 
 import ru.itmo.ctlab.gmwcs.solver.preprocessing.PreprocessorKt;
 import ru.itmo.ctlab.virgo.SolverException;
+import ru.itmo.ctlab.virgo.ThreadBudget;
 import ru.itmo.ctlab.virgo.Pair;
 import ru.itmo.ctlab.virgo.TimeLimit;
 import ru.itmo.ctlab.virgo.gmwcs.graph.*;
@@ -13,6 +14,9 @@ import static ru.itmo.ctlab.gmwcs.solver.preprocessing.PreprocessorKt.preprocess
 import static ru.itmo.ctlab.virgo.gmwcs.graph.Elem.extract;
 
 public class BicomponentSolver implements Solver {
+    private static final int DEFAULT_TREEWIDTH = 4;
+    private static final double ROOTED_SHARE = 0.7;
+
     private TimeLimit rooted;
     private TimeLimit biggest;
     private TimeLimit unrooted;
@@ -20,6 +24,8 @@ public class BicomponentSolver implements Solver {
     private boolean isSolvedToOptimality;
     private double lb;
     private boolean silence;
+    private int treewidth = DEFAULT_TREEWIDTH;
+    private ThreadBudget threads = new ThreadBudget(1);
 
     public int preprocessedNodes() {
         return preprocessedNodes;
@@ -53,6 +59,14 @@ public class BicomponentSolver implements Solver {
         this.biggest = tl;
     }
 
+    /**
+     * Components of treewidth at most <code>treewidth</code> are solved by dynamic programming,
+     * 0 turns it off.
+     */
+    public void setTreewidthThreshold(int treewidth) {
+        this.treewidth = treewidth;
+    }
+
     public List<Elem> solve(Graph graph) throws SolverException {
         Graph g = graph;
         graph = graph.subgraph(graph.vertexSet());
@@ -85,9 +99,14 @@ public class BicomponentSolver implements Solver {
     }
 
 
+    /**
+     * Sets the limit for the biggest and unrooted components. Rooted components get
+     * a sub-limit of it when they are solved.
+     */
     @Override
     public void setTimeLimit(TimeLimit tl) {
-        throw new UnsupportedOperationException();
+        unrooted = biggest = tl;
+        rooted = null;
     }
 
     @Override
@@ -134,9 +153,7 @@ public class BicomponentSolver implements Solver {
             tree.addGraph(graph.subgraph(p.first));
             addAsChild(tree, p.first, p.second, root);
         }
-        solver.setRoot(root);
-        List<Elem> rootedRes = solve(tree, rooted);
-        solver.setRoot(null);
+        List<Elem> rootedRes = solve(tree, rooted != null ? rooted : biggest.subLimit(ROOTED_SHARE), root);
         Graph main = graph.subgraph(decomposition.getBiggestComponent());
         if (rootedRes != null) {
             rootedRes.stream().filter(unit -> unit != root).forEach(unit -> {
@@ -145,7 +162,7 @@ public class BicomponentSolver implements Solver {
             });
         }
         solver.setLB(lb);
-        List<Elem> solution = solve(main, biggest);
+        List<Elem> solution = solve(main, biggest, null);
         List<Elem> result = new ArrayList<>(solution);
         solver.setLB(Utils.sum(result));
         solution.forEach(u -> result.addAll(u.getAbsorbed()));
@@ -177,20 +194,47 @@ public class BicomponentSolver implements Solver {
     private List<Elem> solveUnrooted(Graph graph, Decomposition decomposition) throws SolverException {
         Set<Node> union = new LinkedHashSet<>();
         decomposition.getUnrootedComponents().forEach(union::addAll);
-        return solve(graph.subgraph(union), unrooted);
+        return solve(graph.subgraph(union), unrooted, null);
     }
 
-    private List<Elem> solve(Graph graph, TimeLimit tl) throws SolverException {
+    private List<Elem> solve(Graph graph, TimeLimit tl, Node root) throws SolverException {
+        TreewidthSolver dp = graph.vertexSet().isEmpty() ? null : TreewidthSolver.forGraph(graph, treewidth);
+        if (dp != null) {
+            if (silence) {
+                dp.suppressOutput();
+            }
+            dp.setRoot(root);
+            dp.setTimeLimit(tl);
+            List<Elem> result = dp.solve(graph);
+            if (dp.isSolvedToOptimality()) {
+                return result;
+            }
+        }
+        solver.setRoot(root);
         solver.setTimeLimit(tl);
-        List<Elem> result = solver.solve(graph);
+        threads.register();
+        int acquired = threads.acquire();
+        List<Elem> result;
+        try {
+            solver.setThreadsNum(acquired);
+            result = solver.solve(graph);
+        } finally {
+            threads.release(acquired);
+            threads.unregister();
+        }
+        solver.setRoot(null);
         if (!solver.isSolvedToOptimality()) {
             isSolvedToOptimality = false;
         }
         return result;
     }
 
+    /**
+     * Components are solved one by one, so CPLEX is granted all threads of the budget
+     * for each of them.
+     */
     public void setThreadsNum(int threadsNum) {
-        solver.setThreadsNum(threadsNum);
+        threads = new ThreadBudget(threadsNum);
         PreprocessorKt.setThreads(threadsNum);
     }
 }
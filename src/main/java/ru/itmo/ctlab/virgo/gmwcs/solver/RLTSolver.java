@@ -6,6 +6,7 @@ import ilog.concert.IloNumExpr;
 import ilog.concert.IloNumVar;
 import ilog.cplex.IloCplex;
 import ru.itmo.ctlab.gmwcs.solver.D;
+import ru.itmo.ctlab.gmwcs.solver.LocalSearch;
 import ru.itmo.ctlab.gmwcs.solver.TreeSolverKt;
 import ru.itmo.ctlab.virgo.Pair;
 import ru.itmo.ctlab.virgo.TimeLimit;
@@ -19,6 +20,7 @@ import static ru.itmo.ctlab.gmwcs.solver.TreeSolverKt.mapWeight;
 
 public class RLTSolver extends IloVarHolder implements RootedSolver {
     public static final double EPS = 0.01;
+    private static final double LOCAL_SEARCH_TIME = 1.0;
     private IloCplex cplex;
     private Map<Node, IloNumVar> y;
     private Map<Edge, IloNumVar> w;
@@ -92,7 +94,6 @@ public class RLTSolver extends IloVarHolder implements RootedSolver {
             addObjective();
             maxSizeConstraints();
             initMstWeights();
-            long timeBefore = System.currentTimeMillis();
             if (root == null) {
                 breakRootSymmetry();
             } else {
@@ -108,8 +109,6 @@ public class RLTSolver extends IloVarHolder implements RootedSolver {
                 tryMst(this);
             }
             boolean solFound = cplex.solve();
-            tl.spend(Math.min(tl.getRemainingTime(),
-                    (System.currentTimeMillis() - timeBefore) / 1000.0));
             if (solFound) {
                 return getResult();
             }
@@ -258,7 +257,6 @@ public class RLTSolver extends IloVarHolder implements RootedSolver {
     private void tryMst(IloVarHolder hld) throws IloException {
         Map<Edge, Double> ews = hld.buildVarGraph(graph, this.y, this.w);
         D solution = null;
-        Graph gr = null;
         for (Set<Node> set : graph.connectedSets()) {
             if (set.isEmpty()) continue;
             final Node root = Optional.ofNullable(this.root).orElse(
@@ -276,14 +274,24 @@ public class RLTSolver extends IloVarHolder implements RootedSolver {
             D sol = TreeSolverKt.solve(g, root, null);
             if (solution == null || solution.getBestD() < sol.getBestD()) {
                 solution = sol;
-                gr = g;
             }
         }
         if (solution != null) {
-            final double best = solution.getWithRootD();
-            if (best > 0) {
-                CplexSolution sol = tryMstSolution(gr, solution.getRoot(),
-                        solution.getWithRoot());
+            LocalSearch ls = new LocalSearch(graph, solution.getWithRoot(), solution.getRoot());
+            double lsTime = Math.min(LOCAL_SEARCH_TIME, tl.getRemainingTime() * 0.05);
+            Set<Elem> improved = ls.run(System.nanoTime() + (long) (lsTime * 1e9));
+            if (ls.getScore() > 0) {
+                Set<Node> nodes = new HashSet<>();
+                Set<Edge> edges = new HashSet<>();
+                for (Elem elem : improved) {
+                    if (elem instanceof Node) {
+                        nodes.add((Node) elem);
+                    } else {
+                        edges.add((Edge) elem);
+                    }
+                }
+                CplexSolution sol = tryMstSolution(graph.subgraph(nodes, edges),
+                        solution.getRoot(), new HashSet<>(improved));
                 hld.setSolution(sol.variables(), sol.values());
             }
         }
@@ -392,6 +400,7 @@ public class RLTSolver extends IloVarHolder implements RootedSolver {
         cplex.setParam(IloCplex.DoubleParam.EpRHS, 1.0e-4);
         cplex.setParam(IloCplex.DoubleParam.EpInt, 1.0e-4);
         cplex.setParam(IloCplex.IntParam.MIPOrdType, 3);
+        cplex.use(new CancelCallback());
         if (tl.getRemainingTime() <= 0) {
             cplex.setParam(IloCplex.DoubleParam.TiLim, EPS);
         } else if (tl.getRemainingTime() != Double.POSITIVE_INFINITY) {
@@ -543,4 +552,16 @@ public class RLTSolver extends IloVarHolder implements RootedSolver {
             }
         }
     }
+
+    /**
+     * Stops optimization when the time limit is cancelled.
+     */
+    private class CancelCallback extends IloCplex.MIPInfoCallback {
+        @Override
+        protected void main() throws IloException {
+            if (tl.isCancelled()) {
+                abort();
+            }
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package ru.itmo.ctlab.virgo.gmwcs.solver;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Elem;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.gmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.treewidth.TreeDecomposition;
+import ru.itmo.ctlab.virgo.treewidth.TreewidthDP;
+
+import java.util.*;
+
+/**
+ * Exact solver for graphs of small treewidth based on {@link TreewidthDP}.
+ * If the time limit runs out, the solution is empty and not optimal.
+ */
+public class TreewidthSolver implements RootedSolver {
+    private final int maxWidth;
+    private Node root;
+    private TimeLimit tl = new TimeLimit(Double.POSITIVE_INFINITY);
+    private boolean isSolvedToOptimality;
+    private boolean silence;
+    private Graph decomposed;
+    private List<Node> nodes;
+    private List<Edge> edges;
+    private int[][] ends;
+    private TreeDecomposition td;
+
+    public TreewidthSolver(int maxWidth) {
+        this.maxWidth = Math.min(maxWidth, TreewidthDP.MAX_WIDTH);
+    }
+
+    /**
+     * @return solver for <code>g</code> if width of its decomposition is at most <code>maxWidth</code>,
+     * <code>null</code> otherwise. The decomposition is kept for solving <code>g</code>.
+     */
+    public static TreewidthSolver forGraph(Graph g, int maxWidth) {
+        if (maxWidth < 1) {
+            return null;
+        }
+        TreewidthSolver solver = new TreewidthSolver(maxWidth);
+        solver.decompose(g);
+        return solver.td == null ? null : solver;
+    }
+
+    private void decompose(Graph g) {
+        decomposed = g;
+        nodes = new ArrayList<>(g.vertexSet());
+        edges = new ArrayList<>(g.edgeSet());
+        ends = ends(g, nodes, edges);
+        td = TreeDecomposition.minFill(nodes.size(), ends[0], ends[1], maxWidth);
+    }
+
+    @Override
+    public List<Elem> solve(Graph graph) {
+        isSolvedToOptimality = false;
+        if (graph != decomposed) {
+            decompose(graph);
+        }
+        if (td == null) {
+            return Collections.emptyList();
+        }
+        double[] weights = new double[nodes.size() + edges.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            weights[i] = nodes.get(i).getWeight();
+        }
+        for (int i = 0; i < edges.size(); i++) {
+            weights[nodes.size() + i] = edges.get(i).getWeight();
+        }
+        TreewidthDP dp = new TreewidthDP(nodes.size(), ends[0], ends[1], weights,
+                new int[weights.length], new double[]{0});
+        if (root != null) {
+            dp.setRoot(nodes.indexOf(root));
+        }
+        if (!dp.solve(td, tl)) {
+            return Collections.emptyList();
+        }
+        isSolvedToOptimality = true;
+        if (!silence) {
+            System.out.println("Treewidth " + td.width() + " DP found " + dp.score());
+        }
+        List<Elem> result = new ArrayList<>();
+        for (int v : dp.vertices()) {
+            result.add(nodes.get(v));
+        }
+        for (int e : dp.edges()) {
+            result.add(edges.get(e));
+        }
+        return result;
+    }
+
+    private static int[][] ends(Graph g, List<Node> nodes, List<Edge> edges) {
+        Map<Node, Integer> index = new HashMap<>();
+        for (Node v : nodes) {
+            index.put(v, index.size());
+        }
+        int[][] ends = new int[2][edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            ends[0][i] = index.get(g.getEdgeSource(edges.get(i)));
+            ends[1][i] = index.get(g.getEdgeTarget(edges.get(i)));
+        }
+        return ends;
+    }
+
+    @Override
+    public void setRoot(Node root) {
+        this.root = root;
+    }
+
+    @Override
+    public void setTimeLimit(TimeLimit tl) {
+        this.tl = tl;
+    }
+
+    @Override
+    public boolean isSolvedToOptimality() {
+        return isSolvedToOptimality;
+    }
+
+    @Override
+    public void suppressOutput() {
+        silence = true;
+    }
+
+    @Override
+    public void setLB(double lb) {
+    }
+}
@@ -20,28 +20,51 @@ public class Signals {
         weights = new ArrayList<>();
     }
 
+    /**
+     * Restricts signals to <code>subset</code>. Only signals of its units are visited,
+     * their numbers keep the original order.
+     */
     public Signals(Signals signals, Set<Unit> subset) {
         this();
+        SortedSet<Integer> present = new TreeSet<>();
         for (Unit unit : subset) {
-            unitsSets.put(unit, new ArrayList<>());
-        }
-        int j = 0;
-        for (int i = 0; i < signals.size(); i++) {
-            Set<Unit> set = new HashSet<>();
-            for (Unit unit : signals.set(i)) {
-                if (subset.contains(unit)) {
-                    set.add(unit);
-                    unitsSets.get(unit).add(j);
-                }
+            List<Integer> unitSets = signals.unitsSets.get(unit);
+            if (unitSets != null) {
+                present.addAll(unitSets);
             }
-            if (!set.isEmpty()) {
-                sets.add(set);
-                weights.add(OptionalDouble.of(signals.weight(i)));
-                j++;
+        }
+        Map<Integer, Integer> number = new HashMap<>();
+        for (int i : present) {
+            number.put(i, sets.size());
+            sets.add(new HashSet<>());
+            weights.add(OptionalDouble.of(signals.weight(i)));
+        }
+        for (Unit unit : subset) {
+            List<Integer> unitSets = signals.unitsSets.getOrDefault(unit, Collections.emptyList());
+            List<Integer> own = new ArrayList<>();
+            for (int i : new TreeSet<>(unitSets)) {
+                int j = number.get(i);
+                sets.get(j).add(unit);
+                own.add(j);
             }
+            unitsSets.put(unit, own);
         }
     }
 
+    /**
+     * Restricts signals to each of disjoint unit sets, e.g. connected components.
+     * Every unit is visited once, so the total cost doesn't depend on the number of parts.
+     *
+     * @return signals of the parts in the same order.
+     */
+    public static List<Signals> partition(Signals signals, List<? extends Set<? extends Unit>> parts) {
+        List<Signals> result = new ArrayList<>();
+        for (Set<? extends Unit> part : parts) {
+            result.add(new Signals(signals, Collections.unmodifiableSet(part)));
+        }
+        return result;
+    }
+
     public int size() {
         return sets.size();
     }
@@ -69,7 +92,15 @@ public class Signals {
     }
 
     public double minSum(Unit... units) {
-        return sumByPredicate(units, s -> (set(s).size() == 1) || (weight(s) < 0));
+        return sumByPredicate(units, this::isMinSumSignal);
+    }
+
+    /**
+     * @return <code>true</code> if signal <code>s</code> is counted by {@link #minSum(Unit...)},
+     * i.e. it is either negative or held by a single unit.
+     */
+    public boolean isMinSumSignal(int s) {
+        return setSize(s) == 1 || weight(s) < 0;
     }
 
 
@@ -136,7 +167,7 @@ public class Signals {
 
     public boolean bijection(Unit unit) {
         List<Integer> ss = unitSets(unit);
-        return ss.stream().allMatch(s -> set(s).size() == 1);
+        return ss.stream().allMatch(s -> setSize(s) == 1);
     }
 
     public Set<Integer> positiveUnitSets(Unit... units) {
@@ -196,6 +227,10 @@ public class Signals {
         return new ArrayList<>(sets.get(num));
     }
 
+    public int setSize(int num) {
+        return sets.get(num).size();
+    }
+
     public void add(Unit unit, int signalTo) {
         sets.get(signalTo).add(unit);
         ensureLink(unit, signalTo);
@@ -0,0 +1,88 @@
+package ru.itmo.ctlab.virgo.sgmwcs.graph;
+
+import java.util.*;
+
+/**
+ * Small vertex separator of a connected graph found by a breadth-first search
+ * from a pseudo-peripheral vertex. Every BFS level separates the vertices before it
+ * from the ones after it, so the smallest level with the best balance is taken.
+ * Vertices of the level without neighbours on the next one are left out of it.
+ */
+public class BalancedSeparator {
+    /**
+     * The smaller side must contain at least this share of vertices.
+     */
+    private static final double MIN_BALANCE = 0.1;
+
+    private final List<Node> separator;
+
+    public BalancedSeparator(Graph graph, int maxSize) {
+        separator = find(graph, maxSize);
+    }
+
+    /**
+     * @return vertices of the separator in BFS order, empty if there is no balanced one
+     * of size at most <code>maxSize</code>.
+     */
+    public List<Node> separator() {
+        return separator;
+    }
+
+    private static List<Node> find(Graph graph, int maxSize) {
+        int n = graph.vertexSet().size();
+        if (maxSize < 1 || n < 3) {
+            return Collections.emptyList();
+        }
+        Map<Node, Integer> first = bfs(graph, graph.vertexSet().iterator().next());
+        Node start = first.keySet().stream().max(Comparator.comparing(first::get)).get();
+        Map<Node, Integer> dist = bfs(graph, start);
+        List<List<Node>> levels = new ArrayList<>();
+        for (Map.Entry<Node, Integer> e : dist.entrySet()) {
+            while (levels.size() <= e.getValue()) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(e.getValue()).add(e.getKey());
+        }
+        List<Node> best = Collections.emptyList();
+        int bestBalance = (int) Math.ceil(n * MIN_BALANCE) - 1;
+        int before = levels.get(0).size();
+        for (int d = 1; d < levels.size() - 1; before += levels.get(d).size(), d++) {
+            List<Node> level = new ArrayList<>();
+            for (Node v : levels.get(d)) {
+                for (Node u : graph.neighborListOf(v)) {
+                    if (dist.get(u) > d) {
+                        level.add(v);
+                        break;
+                    }
+                }
+            }
+            if (level.isEmpty() || level.size() > maxSize) {
+                continue;
+            }
+            int left = before + levels.get(d).size() - level.size();
+            int balance = Math.min(left, n - left - level.size());
+            if (balance > bestBalance || balance == bestBalance && level.size() < best.size()) {
+                best = level;
+                bestBalance = balance;
+            }
+        }
+        return best;
+    }
+
+    private static Map<Node, Integer> bfs(Graph graph, Node start) {
+        Map<Node, Integer> dist = new LinkedHashMap<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        dist.put(start, 0);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Node v = queue.poll();
+            for (Node u : graph.neighborListOf(v)) {
+                if (!dist.containsKey(u)) {
+                    dist.put(u, dist.get(v) + 1);
+                    queue.add(u);
+                }
+            }
+        }
+        return dist;
+    }
+}
@@ -7,12 +7,17 @@ public class Graph {
     private Map<Node, Map<Node, LinksList>> connected;
     private Map<Node, LinksList> adj;
     private Map<Node, Integer> degree;
+    private List<Set<Node>> buckets;
+    private Map<Node, Long> stamps;
+    private long modCount;
 
     public Graph() {
         links = new LinkedHashMap<>();
         adj = new LinkedHashMap<>();
         connected = new HashMap<>();
         degree = new HashMap<>();
+        buckets = new ArrayList<>();
+        stamps = new HashMap<>();
     }
 
     public Graph(Graph that) {
@@ -36,7 +41,7 @@ public class Graph {
         }
         adj.put(v, new LinksList());
         connected.put(v, new LinkedHashMap<>());
-        degree.put(v, 0);
+        setDegree(v, 0);
     }
 
     public void addEdge(Node v, Node u, Edge e) {
@@ -49,8 +54,8 @@ public class Graph {
         adj.get(u).add(link);
         addToConnected(v, u, link);
         addToConnected(u, v, link);
-        degree.put(v, degree.get(v) + 1);
-        degree.put(u, degree.get(u) + 1);
+        setDegree(v, degree.get(v) + 1);
+        setDegree(u, degree.get(u) + 1);
 
     }
 
@@ -98,6 +103,8 @@ public class Graph {
         }
         adj.remove(v);
         connected.remove(v);
+        buckets.get(degree.remove(v)).remove(v);
+        stamps.remove(v);
     }
 
     public List<Edge> getAllEdges(Node v, Node u) {
@@ -133,8 +140,8 @@ public class Graph {
         Link l = links.get(e);
         links.remove(e);
         l.removed = true;
-        degree.put(l.v, degree.get(l.v) - 1);
-        degree.put(l.u, degree.get(l.u) - 1);
+        setDegree(l.v, degree.get(l.v) - 1);
+        setDegree(l.u, degree.get(l.u) - 1);
     }
 
     public Set<Node> vertexSet() {
@@ -239,6 +246,37 @@ public class Graph {
         return degree.get(v);
     }
 
+    /**
+     * @return live view of vertices with exactly <code>d</code> incident edges.
+     * Callers that modify the graph while iterating should take a copy.
+     */
+    public Set<Node> verticesOfDegree(int d) {
+        if (d >= buckets.size()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(buckets.get(d));
+    }
+
+    /**
+     * @return value that changes every time an edge incident to <code>v</code>
+     * is added or removed. Stamps are never reused within one graph.
+     */
+    public long stampOf(Node v) {
+        return stamps.get(v);
+    }
+
+    private void setDegree(Node v, int d) {
+        stamps.put(v, ++modCount);
+        Integer old = degree.put(v, d);
+        if (old != null) {
+            buckets.get(old).remove(v);
+        }
+        while (buckets.size() <= d) {
+            buckets.add(new LinkedHashSet<>());
+        }
+        buckets.get(d).add(v);
+    }
+
     public void removeUnit(Unit u) {
         if (u instanceof Node) {
             removeVertex((Node) u);
@@ -0,0 +1,153 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+import ru.itmo.ctlab.virgo.annealing.Annealing;
+import ru.itmo.ctlab.virgo.annealing.Instance;
+import ru.itmo.ctlab.virgo.sgmwcs.Signals;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
+
+import java.util.*;
+
+/**
+ * Heuristic solver which runs {@link Annealing} on the preprocessed graph
+ * for the whole time limit or for {@link #DEFAULT_TIME} seconds if there is none.
+ * Cancellation of the limit stops it after the current moves.
+ */
+public class AnnealingSolver implements Solver {
+    public static final double DEFAULT_TIME = 60.0;
+    private static final double NPVK_TIME_SHARE = 0.1;
+
+    private TimeLimit tl;
+    private AtomicDouble lb;
+    private int logLevel;
+    private int threads;
+    private long steps;
+    private int preprocessLevel;
+
+    private final int[] preprocessedSize = {0, 0};
+
+    public int preprocessedNodes() {
+        return preprocessedSize[0];
+    }
+
+    public int preprocessedEdges() {
+        return preprocessedSize[1];
+    }
+
+    public AnnealingSolver() {
+        tl = new TimeLimit(Double.POSITIVE_INFINITY);
+        lb = new AtomicDouble(Double.NEGATIVE_INFINITY);
+        threads = 1;
+    }
+
+    @Override
+    public List<Unit> solve(Graph graph, Signals signals) {
+        TimeLimit limit = tl.getDeadline() == Long.MAX_VALUE ? tl.capped(DEFAULT_TIME) : tl;
+        Graph g = new Graph();
+        Signals s = new Signals();
+        Utils.copy(graph, signals, g, s);
+        Preprocessor preprocessor = new Preprocessor(g, s, threads, logLevel);
+        preprocessor.setNpvkTimeLimit(limit.getRemainingTime() * NPVK_TIME_SHARE);
+        preprocessor.preprocess(preprocessLevel);
+        preprocessedSize[0] = g.vertexSet().size();
+        preprocessedSize[1] = g.edgeSet().size();
+        List<Node> nodes = new ArrayList<>(g.vertexSet());
+        List<Edge> edges = new ArrayList<>(g.edgeSet());
+        Map<Node, Integer> index = new HashMap<>();
+        for (Node v : nodes) {
+            index.put(v, index.size());
+        }
+        int[] from = new int[edges.size()], to = new int[edges.size()];
+        int[][] unitSignals = new int[nodes.size() + edges.size()][];
+        for (int i = 0; i < nodes.size(); i++) {
+            unitSignals[i] = toArray(s.unitSets(nodes.get(i)));
+        }
+        for (int i = 0; i < edges.size(); i++) {
+            Edge e = edges.get(i);
+            from[i] = index.get(g.getEdgeSource(e));
+            to[i] = index.get(g.getEdgeTarget(e));
+            unitSignals[nodes.size() + i] = toArray(s.unitSets(e));
+        }
+        double[] weights = new double[s.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = s.weight(i);
+        }
+        Annealing annealing = new Annealing(new Instance(nodes.size(), from, to, unitSignals, weights));
+        annealing.setThreadsNum(threads);
+        Annealing.Solution solution = steps > 0 ? annealing.solve(steps) : annealing.solve(limit);
+        if (logLevel > 0) {
+            System.out.println("Simulated annealing found " + solution.score);
+        }
+        List<Unit> best = new ArrayList<>();
+        for (int v : solution.vertices) {
+            best.add(nodes.get(v));
+        }
+        for (int e : solution.edges) {
+            best.add(edges.get(e));
+        }
+        lb.updateMax(solution.score);
+        List<Unit> result = Unit.extractAbsorbed(best);
+        g.vertexSet().forEach(Unit::clear);
+        g.edgeSet().forEach(Unit::clear);
+        return result;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public boolean isSolvedToOptimality() {
+        return false;
+    }
+
+    @Override
+    public TimeLimit getTimeLimit() {
+        return tl;
+    }
+
+    @Override
+    public void setTimeLimit(TimeLimit tl) {
+        this.tl = tl;
+    }
+
+    @Override
+    public void setLogLevel(int logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    @Override
+    public void setLB(AtomicDouble lb) {
+        this.lb = lb;
+    }
+
+    @Override
+    public AtomicDouble getLB() {
+        return lb;
+    }
+
+    /**
+     * Makes every island run a fixed number of cooling cycles of <code>steps</code> moves
+     * instead of using the time limit, 0 turns it off. See {@link Annealing#solve(long)}.
+     */
+    public void setSteps(long steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.steps = steps;
+    }
+
+    public void setThreadsNum(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException();
+        }
+        threads = n;
+    }
+
+    public void setPreprocessingLevel(int preprocessLevel) {
+        this.preprocessLevel = preprocessLevel;
+    }
+}
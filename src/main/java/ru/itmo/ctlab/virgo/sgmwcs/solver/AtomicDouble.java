@@ -18,4 +18,20 @@ public class AtomicDouble {
         long upd = Double.doubleToLongBits(update);
         return rep.compareAndSet(exp, upd);
     }
+
+    /**
+     * Sets the value to <code>update</code> if it is greater than the current one.
+     *
+     * @return true if the value was updated.
+     */
+    public boolean updateMax(double update) {
+        double current = get();
+        while (current < update) {
+            if (compareAndSet(current, update)) {
+                return true;
+            }
+            current = get();
+        }
+        return false;
+    }
 }
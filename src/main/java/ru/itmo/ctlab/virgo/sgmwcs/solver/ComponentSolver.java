@@ -2,21 +2,36 @@ package ru.itmo.ctlab.virgo.sgmwcs.solver;
 
 import org.jetbrains.annotations.NotNull;
 import ru.itmo.ctlab.virgo.SolverException;
+import ru.itmo.ctlab.virgo.ThreadBudget;
 import ru.itmo.ctlab.virgo.sgmwcs.Signals;
 import ru.itmo.ctlab.virgo.TimeLimit;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class ComponentSolver implements Solver {
+    private static final double NPVK_TIME_SHARE = 0.1;
+    private static final double IMPROVE_SLICE = 1.0;
+    private static final int DEFAULT_TREEWIDTH = 4;
+    private static final int DEFAULT_EXHAUSTIVE = 16;
+    private static final int COMPONENTS_PER_THREAD = 4;
+
     private final int threshold;
     private TimeLimit tl;
     private AtomicDouble lb;
     private boolean isSolvedToOptimality;
     private int logLevel;
     private int threads;
+    private int treewidth = DEFAULT_TREEWIDTH;
+    private int exhaustive = DEFAULT_EXHAUSTIVE;
+    private int separator;
     private boolean cplexOff;
+    private double reportInterval = Double.POSITIVE_INFINITY;
+    private Consumer<List<Unit>> incumbentListener;
 
     private final double eps;
     private final boolean minimize;
@@ -27,11 +42,19 @@ public class ComponentSolver implements Solver {
 
     private final int[] preprocessedSize = {0, 0};
 
-    long startTime;
-
-    BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
-
-    ExecutorService executor;
+    private TimeBudget budget;
+    private ThreadBudget cores;
+    private volatile Incumbent incumbent = new Incumbent(new AtomicDouble(Double.NEGATIVE_INFINITY));
+    private Set<Worker> running;
+    private List<Worker> retained;
+    private AtomicInteger workers;
+    private AtomicInteger pruned;
+    private AtomicInteger failed;
+    /**
+     * Maximum upper bound of components whose workers finished without proving their results
+     * optimal and weren't dominated. The run is solved to optimality if the best solution reaches it.
+     */
+    private AtomicDouble openBound;
 
     public int preprocessedNodes() {
         return preprocessedSize[0];
@@ -61,7 +84,9 @@ public class ComponentSolver implements Solver {
         Utils.copy(graph, signals, g, s);
         Set<Unit> units = new HashSet<>(g.vertexSet());
         units.addAll(g.edgeSet());
-        new Preprocessor(g, s, threads, logLevel).preprocess(preprocessLevel);
+        Preprocessor preprocessor = new Preprocessor(g, s, threads, logLevel);
+        preprocessor.setNpvkTimeLimit(tl.getRemainingTime() * NPVK_TIME_SHARE);
+        preprocessor.preprocess(preprocessLevel);
         preprocessedSize[0] = g.vertexSet().size();
         preprocessedSize[1] = g.edgeSet().size();
         if (logLevel > 0) {
@@ -76,47 +101,290 @@ public class ComponentSolver implements Solver {
     }
 
     private List<Unit> afterPreprocessing(Graph graph, Signals signals) throws SolverException {
-        startTime = System.currentTimeMillis();
-        PriorityQueue<Set<Node>> components = getComponents(graph);
-        List<Worker> memorized = new ArrayList<>();
-        executor = new ThreadPoolExecutor(threads, threads, Long.MAX_VALUE, TimeUnit.NANOSECONDS, queue);
-        while (!components.isEmpty()) {
-            Set<Node> component = components.poll();
-            Graph subgraph = graph.subgraph(component);
-            Node root = null;
-            double timeRemains = tl.getRemainingTime()
-                    - (System.currentTimeMillis() - startTime) / 1000.0;
-            if (component.size() >= threshold && timeRemains > 0) {
-                root = getRoot(subgraph, new Blocks(subgraph));
+        budget = new TimeBudget(tl, threads);
+        cores = new ThreadBudget(threads);
+        incumbent = new Incumbent(lb);
+        running = ConcurrentHashMap.newKeySet();
+        retained = Collections.synchronizedList(new ArrayList<>());
+        workers = new AtomicInteger();
+        pruned = new AtomicInteger();
+        failed = new AtomicInteger();
+        openBound = new AtomicDouble(Double.NEGATIVE_INFINITY);
+        List<Component> components = new ArrayList<>();
+        for (Set<Node> component : graph.connectedSets()) {
+            components.add(new Component(graph, signals, component));
+        }
+        // Components which may contain the best solutions go first and raise the lower bound,
+        // so workers of components with lower upper bounds skip them when started
+        components.sort(Comparator.comparingDouble(component -> -component.upperBound));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            stream(components, graph, signals, pool);
+            if (logLevel > 0) {
+                System.out.println("Upper bounds pruned " + pruned.get() + " of " + workers.get() + " components");
+            }
+            if (cplexOff) {
+                improve(retained);
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            pool.shutdown();
+        }
+        return getResult(graph);
+    }
+
+    /**
+     * Component of the preprocessed graph waiting for its split to be created.
+     * Only its vertices are kept until then.
+     */
+    private static class Component {
+        private final Set<Node> nodes;
+        private final double upperBound;
+        private final int size;
+
+        Component(Graph graph, Signals signals, Set<Node> nodes) {
+            this.nodes = nodes;
+            Set<Unit> units = new HashSet<>(nodes);
+            for (Node v : nodes) {
+                units.addAll(graph.edgesOf(v));
+            }
+            upperBound = signals.weightSum(signals.positiveUnitSets(units));
+            size = units.size();
+        }
+    }
+
+    /**
+     * Creates splits of the components in the given order and runs them in the pool,
+     * at most {@link #COMPONENTS_PER_THREAD} per thread at a time. So subgraphs and
+     * signals exist only for components being solved, and the data of a worker
+     * is dropped once its result is folded into the incumbent.
+     */
+    private void stream(List<Component> components, Graph graph, Signals signals, ForkJoinPool pool)
+            throws InterruptedException {
+        for (Component component : components) {
+            budget.register(component.size);
+        }
+        int limit = threads * COMPONENTS_PER_THREAD;
+        Semaphore inFlight = new Semaphore(limit);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        for (ListIterator<Component> it = components.listIterator(); it.hasNext() && failure.get() == null; ) {
+            Component component = it.next();
+            it.set(null);
+            inFlight.acquire();
+            Graph subgraph = graph.subgraph(component.nodes);
+            cores.register();
+            Split split = new Split(subgraph, new Signals(signals, subgraph.units()));
+            pool.execute(ForkJoinTask.adapt(() -> {
+                try {
+                    split.invoke();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            }));
+        }
+        inFlight.acquire(limit);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Splits a component at the root chosen by {@link #getRoot(Graph, Blocks)}. The worker
+     * solving the component with the root runs in the current thread, while the parts left
+     * after removal of the root are split and solved by forked tasks. Subgraphs of the parts
+     * are built before forking, so the tasks don't read the graph the worker uses.
+     * <p>
+     * A 2-connected component is split at a {@link BalancedSeparator} instead. Solutions
+     * containing its i-th vertex and none of the previous ones are found by a worker
+     * rooted at it in the component without the previous vertices, and the parts
+     * left after removal of the whole separator are split as above.
+     */
+    private class Split extends RecursiveAction {
+        private final Graph subgraph;
+        private final Signals signals;
+        private final double upperBound;
+
+        Split(Graph subgraph, Signals signals) {
+            this.subgraph = subgraph;
+            this.signals = signals;
+            upperBound = Worker.upperBound(subgraph, signals);
+        }
+
+        @Override
+        protected void compute() {
+            List<Node> roots = Collections.emptyList();
+            if (subgraph.vertexSet().size() >= threshold && !tl.isOver()) {
+                Node root = getRoot(subgraph, new Blocks(subgraph));
                 if (root != null) {
-                    addComponents(subgraph, root, components);
+                    roots = Collections.singletonList(root);
+                } else if (separator > 0) {
+                    roots = new BalancedSeparator(subgraph, separator).separator();
                 }
             }
-            addWorker(subgraph, signals, root, memorized);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            List<Split> parts = new ArrayList<>();
+            if (!roots.isEmpty()) {
+                Graph rest = subgraph.subgraph(subgraph.vertexSet());
+                for (int i = 0; i < roots.size(); i++) {
+                    Node root = roots.get(i);
+                    if (i > 0) {
+                        Set<Node> component = rest.connectedSets().stream()
+                                .filter(c -> c.contains(root)).findAny().get();
+                        Graph rooted = rest.subgraph(component);
+                        budget.register(Worker.size(rooted));
+                        cores.register();
+                        tasks.add(task(addWorker(rooted, new Signals(signals, rooted.units()), root)));
+                    }
+                    rest.removeVertex(root);
+                }
+                parts.addAll(splits(rest, signals));
+                parts.sort(Comparator.comparingDouble(split -> -split.upperBound));
+            }
+            tasks.add(0, task(addWorker(subgraph, signals, roots.isEmpty() ? null : roots.get(0))));
+            tasks.addAll(parts);
+            invokeAll(tasks);
         }
+    }
 
-        executor.shutdown();
-        try {
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException ignored) {
+    private ForkJoinTask<?> task(Worker worker) {
+        return ForkJoinTask.adapt(() -> {
+            running.add(worker);
+            try {
+                worker.run();
+            } finally {
+                running.remove(worker);
+                fold(worker);
+            }
+        });
+    }
+
+    /**
+     * @return splits of connected components of <code>graph</code> with signals restricted to them.
+     */
+    private List<Split> splits(Graph graph, Signals signals) {
+        List<Graph> subgraphs = new ArrayList<>();
+        List<Set<Unit>> units = new ArrayList<>();
+        for (Set<Node> component : graph.connectedSets()) {
+            Graph subgraph = graph.subgraph(component);
+            subgraphs.add(subgraph);
+            units.add(subgraph.units());
+        }
+        List<Signals> restricted = Signals.partition(signals, units);
+        List<Split> result = new ArrayList<>();
+        for (int i = 0; i < subgraphs.size(); i++) {
+            budget.register(Worker.size(subgraphs.get(i)));
+            cores.register();
+            result.add(new Split(subgraphs.get(i), restricted.get(i)));
         }
-        return getResult(memorized, graph, signals);
+        return result;
     }
 
-    private List<Unit> getResult(List<Worker> memorized, Graph graph, Signals signals) throws SolverException {
-        List<Unit> best = null;
-        double bestScore = -Double.MAX_VALUE;
-        for (Worker worker : memorized) {
-            List<Unit> solution = worker.getResult();
-            if (solution == null) {
-                throw new SolverException("Worker " + memorized.indexOf(worker) + "failed");
+    /**
+     * Accounts a finished worker. Its solutions are already in the incumbent, so it is
+     * kept only in heuristic mode if its component may still contain a better one.
+     * Upper bound of a worker which is neither optimal nor dominated limits the optimality of the run.
+     */
+    private void fold(Worker worker) {
+        workers.incrementAndGet();
+        if (worker.getResult() == null) {
+            failed.incrementAndGet();
+        } else if (worker.isPruned()) {
+            pruned.incrementAndGet();
+        } else if (!worker.isSolvedToOptimality() && !worker.isDominated()) {
+            openBound.updateMax(worker.upperBound());
+            if (cplexOff && worker.upperBound() > lb.get()) {
+                retained.add(worker);
             }
-            if (bestScore < Utils.sum(solution, signals)) {
-                best = solution;
-                bestScore = Utils.sum(solution, signals);
-                isSolvedToOptimality = worker.isSolvedToOptimality();
+        }
+        cancelDominated();
+    }
+
+    /**
+     * Cancels running workers whose components can't contain a solution better
+     * than the lower bound, so the run ends once the answer is known.
+     */
+    private void cancelDominated() {
+        double bound = lb.get();
+        for (Worker worker : running) {
+            if (!worker.isFinished() && worker.upperBound() <= bound) {
+                worker.cancel();
             }
         }
+    }
+
+    /**
+     * Anytime part of heuristic mode. Until the time limit runs out, workers whose components may
+     * contain a better solution than the best one found are given slices of time
+     * for {@link Worker#improve(int, AtomicDouble, long)}. Threads are split between
+     * them, so a single remaining component gets all of them. The best solution
+     * is passed to the incumbent listener every report interval.
+     */
+    private void improve(List<Worker> workers) throws InterruptedException {
+        if (tl.isOver() || tl.getDeadline() == Long.MAX_VALUE) {
+            return;
+        }
+        long deadline = tl.getDeadline();
+        long lastReport = System.nanoTime();
+        Map<Worker, Double> bounds = new HashMap<>();
+        for (Worker worker : workers) {
+            if (worker.getResult() != null) {
+                bounds.put(worker, worker.upperBound());
+            }
+        }
+        ExecutorService pool = threads == 1 ? new Utils.CurrentThreadExecutorService()
+                : Executors.newFixedThreadPool(threads);
+        try {
+            for (int shift = 0; !tl.isOver(); shift++) {
+                List<Worker> open = new ArrayList<>();
+                for (Worker worker : workers) {
+                    if (bounds.containsKey(worker) && bounds.get(worker) > lb.get()
+                            && !worker.isSolvedToOptimality()) {
+                        open.add(worker);
+                    }
+                }
+                if (open.isEmpty()) {
+                    break;
+                }
+                // Workers late in the queue of a slice get little time, so the order rotates
+                Collections.rotate(open, -shift % open.size());
+                long sliceEnd = Math.min(deadline,
+                        System.nanoTime() + (long) (Math.min(IMPROVE_SLICE, reportInterval) * 1e9));
+                List<Callable<Object>> tasks = new ArrayList<>();
+                for (int i = 0; i < open.size(); i++) {
+                    Worker worker = open.get(i);
+                    int share = Math.max(1, threads / open.size() + (i < threads % open.size() ? 1 : 0));
+                    tasks.add(() -> {
+                        worker.improve(share, lb, sliceEnd);
+                        return null;
+                    });
+                }
+                for (Future<Object> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+                if (incumbentListener != null && System.nanoTime() - lastReport >= reportInterval * 1e9) {
+                    lastReport = System.nanoTime();
+                    incumbentListener.accept(Unit.extractAbsorbed(incumbent.solution()));
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private List<Unit> getResult(Graph graph) throws SolverException {
+        if (failed.get() > 0) {
+            throw new SolverException(failed.get() + " of " + workers.get() + " workers failed");
+        }
+        List<Unit> best = incumbent.solution();
+        double bestScore = incumbent.score();
+        // Optimality of the best entry only concerns its own component, the others are either
+        // dominated, optimal or bounded by openBound. If every component was pruned by the given
+        // lower bound, nothing is published and both are infinite.
+        isSolvedToOptimality = openBound.get() <= bestScore;
         List<Unit> result = Unit.extractAbsorbed(best);
         graph.vertexSet().forEach(Unit::clear);
         graph.edgeSet().forEach(Unit::clear);
@@ -174,19 +442,6 @@ public class ComponentSolver implements Solver {
         return isSolvedToOptimality;
     }
 
-    private void addComponents(Graph graph, Node root,
-                               PriorityQueue<Set<Node>> components) {
-        graph = graph.subgraph(graph.vertexSet());
-        graph.removeVertex(root);
-        components.addAll(graph.connectedSets());
-    }
-
-    private PriorityQueue<Set<Node>> getComponents(Graph graph) {
-        PriorityQueue<Set<Node>> result = new PriorityQueue<>(new SetComparator());
-        result.addAll(graph.connectedSets());
-        return result;
-    }
-
     @Override
     public TimeLimit getTimeLimit() {
         return tl;
@@ -209,6 +464,14 @@ public class ComponentSolver implements Solver {
         threads = n;
     }
 
+    /**
+     * @return the best solution found so far by the running or the last run, in terms
+     * of preprocessed units. {@link Unit#extractAbsorbed(Collection)} gives the original ones.
+     */
+    public Incumbent getIncumbent() {
+        return incumbent;
+    }
+
     @Override
     public void setLB(AtomicDouble lb) {
         this.lb = lb;
@@ -220,20 +483,41 @@ public class ComponentSolver implements Solver {
     }
 
 
-    public void addWorker(Graph subgraph, Signals signals, Node root, List<Worker> memorized) {
-        Set<Unit> subset = subgraph.units();
-        Signals subSignals = new Signals(signals, subset);
+    /**
+     * @param subSignals signals restricted to units of <code>subgraph</code>.
+     */
+    public Worker addWorker(Graph subgraph, Signals subSignals, Node root) {
         RootedSolver solver = null;
-        if (!this.cplexOff) {
-            solver = new RLTSolver(this.minimize ? 0 : 1e-6);
+        TreewidthSolver dp;
+        if (ExhaustiveSolver.isSolvable(subgraph, subSignals, exhaustive)) {
+            solver = new ExhaustiveSolver();
+            solver.setLB(lb);
+            solver.setTimeLimit(tl);
+        } else if (TreeSolver.isSolvable(subgraph, subSignals)) {
+            solver = new TreeSolver();
+            solver.setLB(lb);
+            solver.setTimeLimit(tl);
+        } else if ((dp = TreewidthSolver.forGraph(subgraph, subSignals, treewidth)) != null) {
+            solver = dp;
+            solver.setLB(lb);
+            solver.setTimeLimit(tl);
+            solver.setLogLevel(logLevel);
+        } else if (!this.cplexOff) {
+            RLTSolver rlt = new RLTSolver(this.minimize ? 0 : 1e-6);
+            rlt.setIncumbent(incumbent);
+            solver = rlt;
             solver.setLB(lb);
             solver.setTimeLimit(tl);
             solver.setLogLevel(logLevel);
         }
         Worker worker = new Worker(subgraph, root,
-                subSignals, solver, startTime);
-        executor.execute(worker);
-        memorized.add(worker);
+                subSignals, solver);
+        worker.setLB(lb);
+        worker.setBudget(budget);
+        worker.setThreads(cores);
+        worker.setIncumbent(incumbent);
+        worker.setLogLevel(logLevel);
+        return worker;
     }
 
     public void setPreprocessingLevel(int preprocessLevel) {
@@ -244,10 +528,44 @@ public class ComponentSolver implements Solver {
         this.cplexOff = cplexOff;
     }
 
-    public static class SetComparator implements Comparator<Set<Node>> {
-        @Override
-        public int compare(Set<Node> o1, Set<Node> o2) {
-            return -Integer.compare(o1.size(), o2.size());
-        }
+    /**
+     * Sets maximum number of edges of components solved by {@link ExhaustiveSolver},
+     * 0 leaves only isolated vertices to it.
+     */
+    public void setExhaustiveThreshold(int edges) {
+        this.exhaustive = edges;
+    }
+
+    /**
+     * Sets maximum size of balanced vertex separators splitting 2-connected components
+     * too big for a single worker, 0 turns them off. Every vertex of a separator adds
+     * a rooted subproblem almost as big as the component.
+     */
+    public void setSeparatorSize(int separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Sets maximum treewidth of components solved by {@link TreewidthSolver},
+     * 0 turns it off.
+     */
+    public void setTreewidthThreshold(int treewidth) {
+        this.treewidth = treewidth;
+    }
+
+    /**
+     * Sets interval in seconds between calls of the incumbent listener
+     * in heuristic mode.
+     */
+    public void setReportInterval(double reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    /**
+     * Sets listener which receives the best solution found so far
+     * in heuristic mode with a time limit.
+     */
+    public void setIncumbentListener(Consumer<List<Unit>> incumbentListener) {
+        this.incumbentListener = incumbentListener;
     }
 }
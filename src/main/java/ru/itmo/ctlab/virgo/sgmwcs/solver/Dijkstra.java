@@ -7,8 +7,6 @@ import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
 
 import java.util.*;
-import java.util.function.Consumer;
-import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 
 class Dijkstra {
@@ -16,9 +14,10 @@ class Dijkstra {
     private final Signals signals;
     private Map<Node, Double> d;
     private Map<Unit, Set<Integer>> p;
-    private Map<Node, Node> path;
-    private Set<Edge> touched;
     private Set<Node> dests;
+    private Map<Node, Edge> prev;
+    private Node excluded;
+    private long deadline = Long.MAX_VALUE;
 
     private Set<Integer> currentSignals;
 
@@ -54,21 +53,32 @@ class Dijkstra {
      * @param u The start node. Distance of u -> u is considered as 0.
      */
     public void solve(Node u) {
+        solve(Collections.singleton(u), signals.positiveUnitSets(u));
+    }
+
+    /**
+     * Calculates distances from the nearest of <code>sources</code>, signals
+     * <code>initial</code> are considered to be taken at every source.
+     */
+    private void solve(Collection<Node> sources, Set<Integer> initial) {
         d = new HashMap<>();
         p = new HashMap<>();
         PriorityQueue<Node> q = new PriorityQueue<>(Comparator.comparingDouble(this::weight));
         currentSignals = new HashSet<>();
-        q.add(u);
-        d.put(u, 0.0);
-        p.put(u, new HashSet<>(signals.positiveUnitSets(u)));
+        Set<Integer> start = new HashSet<>(initial);
+        for (Node u : sources) {
+            d.put(u, 0.0);
+            p.put(u, start);
+            q.add(u);
+        }
         Node cur;
         List<Integer> negE, negN;
-        touched = new HashSet<>();
-        path = new HashMap<>();
+        prev = new HashMap<>();
         List<Integer> addedE = new ArrayList<>(), addedN = new ArrayList<>();
         Set<Node> visitedDests = new HashSet<>();
-        path.put(u, u);
         while ((cur = q.poll()) != null) {
+            if (System.nanoTime() > deadline)
+                break;
             if (visitedDests.contains(cur))
                 continue;
             if (dests.contains(cur)
@@ -79,6 +89,8 @@ class Dijkstra {
             currentSignals = p.getOrDefault(cur, new HashSet<>());
             double cw;
             for (Node node : graph.neighborListOf(cur)) {
+                if (node == excluded)
+                    continue;
                 cw = currentWeight();
                 negN = signals.unitSets(node);
                 double sumN = 0;
@@ -108,9 +120,7 @@ class Dijkstra {
                         d.put(node, cw);
                         p.put(node, new HashSet<>(currentSignals));
                         q.add(node);
-                        graph.getAllEdges(node, cur).forEach(touched::remove);
-                        touched.add(edge);
-                        path.putIfAbsent(node, cur);
+                        prev.put(node, edge);
                     }
                     addedE.forEach(currentSignals::remove);
                     addedE.clear();
@@ -174,39 +184,75 @@ class Dijkstra {
     }
 
     /**
-     * Tests NPk reduction condition which holds if the { @link NaiveMST} solutions for
-     * all subsets of <code>k</code> have less value than <code>p</code>.
+     * Tests NPk reduction condition which holds if <code>u</code> is not better
+     * than empty solution, its positive signals and those of its edges are covered
+     * by each neighbour and for every subset of neighbours the MST of paths
+     * between them avoiding <code>u</code> costs no more than the negative signals
+     * which only <code>u</code> and its edges have.
      *
-     * @param u {@linkplain Node} considered.
-     * @param k Adjacent nodes.
-     * @return <code>true</code> if condition holds.
+     * @param u        {@linkplain Node} considered.
+     * @param deadline {@link System#nanoTime()} after which the test gives up.
+     * @return nodes on the replacement paths including neighbours of <code>u</code>
+     * or <code>null</code> if condition does not hold.
      */
-    /* unused now due to large time complexity
-    boolean solveClique(Node u, Set<Node> k) {
-        if (k.size() < 2) return false;
-        Map<Node, Map<Node, Double>> distances = new HashMap<>();
+    Set<Node> solveClique(Node u, long deadline) {
+        List<Node> k = graph.neighborListOf(u);
+        if (k.size() < 2 || signals.sum(u) > 0) return null;
+        Set<Edge> edges = graph.edgesOf(u);
         for (Node v : k) {
-            solve(v);
-            distances.putIfAbsent(v, new HashMap<>());
-            Map<Node, Double> cd = distances.get(v);
-            for (Node n : k) {
-                if (n == v) continue;
-                Set<Integer> path = this.p.get(n);
-                if (path == null) return false;
-                path.addAll(signals.negativeUnitSets(v));
-                cd.put(n, -signals.weightSum(signals.filter(path, s -> signals.weight(s) < 0)));
+            Set<Integer> pos = signals.positiveUnitSets(graph.getAllEdges(u, v));
+            pos.addAll(signals.positiveUnitSets(u));
+            if (!signals.unitSets(v).containsAll(pos)) return null;
+        }
+        double penalty = -signals.weightSum(signals.negativeUnitSets(u).stream()
+                .filter(s -> signals.set(s).stream().allMatch(h -> h == u
+                        || edges.contains(h) || !graph.containsUnit(h))));
+        Graph distances = new Graph();
+        k.forEach(distances::addVertex);
+        Map<Edge, Double> ws = new HashMap<>();
+        Set<Node> witness = new HashSet<>(k);
+        this.excluded = u;
+        this.deadline = deadline;
+        try {
+            for (int i = 0; i < k.size(); i++) {
+                Node v = k.get(i);
+                dests = new HashSet<>(k.subList(i + 1, k.size()));
+                solve(v);
+                for (Node n : dests) {
+                    if (!p.containsKey(n)) return null;
+                    Set<Integer> path = new HashSet<>(p.get(n));
+                    path.removeAll(signals.unitSets(v, n));
+                    Edge e = new Edge(ws.size());
+                    distances.addEdge(v, n, e);
+                    ws.put(e, -signals.weightSum(signals.filter(path, s -> signals.weight(s) < 0)));
+                    witness.addAll(pathNodes(n));
+                }
             }
+        } finally {
+            this.excluded = null;
+            this.deadline = Long.MAX_VALUE;
+            this.dests = new HashSet<>();
         }
-        Set<Set<Node>> subsets = Utils.subsets(k);
-        for (Set<Node> subset : subsets) {
+        if (System.nanoTime() > deadline) return null;
+        for (Set<Node> subset : Utils.subsets(new HashSet<>(k))) {
             if (subset.size() < 2) continue;
-            if (    !signals.positiveUnitSets(subset).containsAll(signals.positiveUnitSets(u))
-                    || new NaiveMST(subset, distances).result() + signals.minSum(u) > 0)
-                return false;
+            MSTSolver mst = new MSTSolver(distances, ws, subset.iterator().next(), subset);
+            mst.solve();
+            if (mst.getCost() > penalty) return null;
         }
-        return true;
+        return witness;
+    }
+
+    private Set<Node> pathNodes(Node n) {
+        Set<Node> result = new HashSet<>();
+        result.add(n);
+        Edge e;
+        while ((e = prev.get(n)) != null) {
+            n = graph.getOppositeVertex(n, e);
+            result.add(n);
+        }
+        return result;
     }
-    */
 
     /**
      * @return distances calculated by {@link #solve(Node)}.
@@ -215,68 +261,62 @@ class Dijkstra {
         return d;
     }
 
-    Set<Unit> getPath(Node n) {
-        Set<Unit> result = new HashSet<>();
-        while (!path.get(n).equals(n)) {
-            result.add(n);
-            for (Edge e : graph.getAllEdges(path.get(n), n)) {
-                if (touched.contains(e)) {
-                    result.add(e);
-                    break;
+    /**
+     * Grows a tree from <code>root</code> by paths found by {@link #solve(Node)}.
+     * Each round runs Dijkstra algorithm from the whole current tree, so the tree
+     * acts as a single contracted vertex without modifying the graph. Paths are
+     * tried in order of their scores cached at the start of the round and
+     * the part of a path which is not in the tree yet is added if it improves
+     * the score. Rounds are repeated while the tree grows.
+     *
+     * @return units of the tree including <code>root</code>.
+     */
+    public Set<Unit> greedyHeuristic(Node root) {
+        Set<Unit> tree = new HashSet<>();
+        Set<Node> treeNodes = new HashSet<>();
+        tree.add(root);
+        treeNodes.add(root);
+        Set<Integer> taken = new HashSet<>(signals.unitSets(root));
+        double score = signals.weightSum(taken);
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            solve(treeNodes, taken);
+            Map<Node, Double> scores = new HashMap<>();
+            for (Map.Entry<Unit, Set<Integer>> e : p.entrySet()) {
+                if (!treeNodes.contains(e.getKey())) {
+                    scores.put((Node) e.getKey(), signals.weightSum(e.getValue()));
                 }
             }
-            n = path.get(n);
-        }
-        result.add(n);
-        return result;
-    }
-
-    public Set<Unit> greedyHeuristic(Node rt, List<Unit> absorbed) {
-        final Node r = new Node(rt);
-        Graph graph = new Graph();
-        Signals signals = new Signals();
-        Utils.copy(this.graph, this.signals, graph, signals);
-        List<Node> nodes = new ArrayList<>(graph.vertexSet());
-        solve(r);
-        ToDoubleFunction<Node> w = n -> {
-            Set<Unit> path = getPath(n);
-            r.getAbsorbed().forEach(path::remove);
-            Set<Integer> sig = signals.unitSets(path);
-            sig.addAll(signals.unitSets(n, r));
-            return signals.weightSum(sig);
-        };
-        nodes.remove(r);
-        Node[] sorted = nodes.stream().sorted(Comparator.comparingDouble(w)).toArray(Node[]::new);
-        if (sorted.length == 0 || w.applyAsDouble(sorted[sorted.length - 1]) <= signals.weight(r)) {
-            return new HashSet<>(absorbed);
-        }
-        for (int i = sorted.length - 1; i >= 0; --i) {
-            Node v = sorted[i];
-            if (r.getAbsorbed().contains(v) || v == r || w.applyAsDouble(v) <= signals.weight(r)) {
-                continue;
-            }
-            Set<Unit> pt = getPath(v);
-            pt.remove(r);
-            r.getAbsorbed().forEach(pt::remove);
-            Consumer<Unit> absorb = (u) -> {
-                r.absorb(u, false);
-                signals.join(u, r);
-                if (u instanceof Node) {
-                    Node n = (Node) u;
-                    path.put(n, n);
-                    for (Edge e : graph.edgesOf(n)) {
-                        Node m = graph.getOppositeVertex(n, e);
-                        if (!pt.contains(m)) {
-                            graph.removeEdge(e);
-                            graph.addEdge(r, m, e);
+            List<Node> sorted = new ArrayList<>(scores.keySet());
+            sorted.sort(Comparator.comparingDouble(n -> -scores.get(n)));
+            for (Node v : sorted) {
+                if (treeNodes.contains(v)) {
+                    continue;
+                }
+                List<Unit> rest = new ArrayList<>();
+                for (Node n = v; !treeNodes.contains(n); ) {
+                    Edge e = prev.get(n);
+                    rest.add(n);
+                    rest.add(e);
+                    n = graph.getOppositeVertex(n, e);
+                }
+                Set<Integer> sigs = new HashSet<>(taken);
+                sigs.addAll(signals.unitSets(rest));
+                double s = signals.weightSum(sigs);
+                if (s > score) {
+                    taken = sigs;
+                    score = s;
+                    tree.addAll(rest);
+                    for (Unit u : rest) {
+                        if (u instanceof Node) {
+                            treeNodes.add((Node) u);
                         }
                     }
+                    grown = true;
                 }
-                if (graph.containsUnit(u))
-                    graph.removeUnit(u);
-            };
-            pt.forEach(absorb);
+            }
         }
-        return new Dijkstra(graph, signals).greedyHeuristic(r, r.getAbsorbed());
+        return tree;
     }
 }
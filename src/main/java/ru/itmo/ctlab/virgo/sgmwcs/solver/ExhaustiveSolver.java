@@ -0,0 +1,195 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+import ru.itmo.ctlab.virgo.sgmwcs.Signals;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
+
+import java.util.*;
+
+/**
+ * Exact solver for tiny components enumerating all subsets of edges.
+ * A non-empty solution is either a single vertex or a connected set of edges
+ * with their ends. Signals of a single unit are summed into its weight and
+ * shared ones are kept in a bitmask, so connectivity is only checked
+ * for subsets scoring better than the best one found so far.
+ */
+public class ExhaustiveSolver implements RootedSolver {
+    /**
+     * Components are limited to {@link #MAX_EDGES} edges and to 64 shared signals.
+     */
+    public static final int MAX_EDGES = 20;
+
+    private Node root;
+    private TimeLimit tl = new TimeLimit(Double.POSITIVE_INFINITY);
+    private AtomicDouble lb = new AtomicDouble(Double.NEGATIVE_INFINITY);
+
+    /**
+     * @return true if <code>g</code> has at most <code>maxEdges</code> edges and few shared signals.
+     */
+    public static boolean isSolvable(Graph g, Signals s, int maxEdges) {
+        return g.edgeSet().size() <= Math.min(maxEdges, MAX_EDGES) && g.vertexSet().size() <= Long.SIZE
+                && TreeSolver.sharedSignals(g, s).size() <= Long.SIZE;
+    }
+
+    @Override
+    public List<Unit> solve(Graph graph, Signals signals) {
+        List<Node> nodes = new ArrayList<>(graph.vertexSet());
+        List<Edge> edges = new ArrayList<>(graph.edgeSet());
+        List<Integer> shared = TreeSolver.sharedSignals(graph, signals);
+        if (edges.size() > MAX_EDGES || nodes.size() > Long.SIZE || shared.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Component is too large for exhaustive search");
+        }
+        Map<Integer, Integer> bit = new HashMap<>();
+        for (int sig : shared) {
+            bit.put(sig, bit.size());
+        }
+        double[] sharedWeight = new double[shared.size()];
+        for (int i = 0; i < shared.size(); i++) {
+            sharedWeight[i] = signals.weight(shared.get(i));
+        }
+        Map<Node, Integer> index = new HashMap<>();
+        for (Node v : nodes) {
+            index.put(v, index.size());
+        }
+        int n = nodes.size(), m = edges.size();
+        double[] weight = new double[n + m];
+        long[] mask = new long[n + m];
+        long[] ends = new long[m];
+        for (int i = 0; i < n + m; i++) {
+            Unit u = i < n ? nodes.get(i) : edges.get(i - n);
+            for (int sig : new HashSet<>(signals.unitSets(u))) {
+                if (bit.containsKey(sig)) {
+                    mask[i] |= 1L << bit.get(sig);
+                } else {
+                    weight[i] += signals.weight(sig);
+                }
+            }
+        }
+        for (int e = 0; e < m; e++) {
+            Edge edge = edges.get(e);
+            ends[e] = 1L << index.get(graph.getEdgeSource(edge)) | 1L << index.get(graph.getEdgeTarget(edge));
+        }
+        long rootBit = root == null ? 0 : 1L << index.get(root);
+        double best = root == null ? 0 : Double.NEGATIVE_INFINITY;
+        long bestVertices = 0;
+        int bestEdges = 0;
+        for (int v = 0; v < n; v++) {
+            if (root == null || 1L << v == rootBit) {
+                double score = weight[v] + maskWeight(mask[v], sharedWeight);
+                if (score > best) {
+                    best = score;
+                    bestVertices = 1L << v;
+                }
+            }
+        }
+        for (int set = 1; set < 1 << m; set++) {
+            long vertices = 0, signalMask = 0;
+            double score = 0;
+            for (int rest = set; rest != 0; rest &= rest - 1) {
+                int e = Integer.numberOfTrailingZeros(rest);
+                vertices |= ends[e];
+                signalMask |= mask[n + e];
+                score += weight[n + e];
+            }
+            if ((vertices & rootBit) != rootBit) {
+                continue;
+            }
+            for (long rest = vertices; rest != 0; rest &= rest - 1) {
+                int v = Long.numberOfTrailingZeros(rest);
+                signalMask |= mask[v];
+                score += weight[v];
+            }
+            score += maskWeight(signalMask, sharedWeight);
+            if (score > best && isConnected(set, ends)) {
+                best = score;
+                bestVertices = vertices;
+                bestEdges = set;
+            }
+        }
+        List<Unit> result = new ArrayList<>();
+        for (long rest = bestVertices; rest != 0; rest &= rest - 1) {
+            result.add(nodes.get(Long.numberOfTrailingZeros(rest)));
+        }
+        for (int rest = bestEdges; rest != 0; rest &= rest - 1) {
+            result.add(edges.get(Integer.numberOfTrailingZeros(rest)));
+        }
+        lb.updateMax(best);
+        return result;
+    }
+
+    private static double maskWeight(long mask, double[] sharedWeight) {
+        double res = 0;
+        for (long rest = mask; rest != 0; rest &= rest - 1) {
+            res += sharedWeight[Long.numberOfTrailingZeros(rest)];
+        }
+        return res;
+    }
+
+    /**
+     * Grows the set of reached vertices from the lowest edge of <code>set</code>.
+     */
+    private static boolean isConnected(int set, long[] ends) {
+        int rest = set & (set - 1);
+        long reached = ends[Integer.numberOfTrailingZeros(set)];
+        boolean grown = true;
+        while (rest != 0 && grown) {
+            grown = false;
+            for (int it = rest; it != 0; it &= it - 1) {
+                int e = Integer.numberOfTrailingZeros(it);
+                if ((ends[e] & reached) != 0) {
+                    reached |= ends[e];
+                    rest &= ~(1 << e);
+                    grown = true;
+                }
+            }
+        }
+        return rest == 0;
+    }
+
+    @Override
+    public boolean isSolvedToOptimality() {
+        return true;
+    }
+
+    @Override
+    public TimeLimit getTimeLimit() {
+        return tl;
+    }
+
+    @Override
+    public void setTimeLimit(TimeLimit tl) {
+        this.tl = tl;
+    }
+
+    @Override
+    public void setLogLevel(int logLevel) {
+    }
+
+    @Override
+    public void setLB(AtomicDouble lb) {
+        this.lb = lb;
+    }
+
+    @Override
+    public AtomicDouble getLB() {
+        return lb;
+    }
+
+    @Override
+    public void setRoot(Node root) {
+        this.root = root;
+    }
+
+    @Override
+    public void setInitialSolution(Collection<Unit> sol) {
+        // every subset is checked anyway
+    }
+
+    @Override
+    public void setThreadsNum(int threads) {
+        // single-threaded
+    }
+}
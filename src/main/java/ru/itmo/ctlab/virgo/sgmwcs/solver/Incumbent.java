@@ -0,0 +1,88 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free holder of the best solution found by concurrently running workers,
+ * solvers and heuristics, so it is available at any moment of the run.
+ * Along with the solution it keeps its score, the name of its source and whether
+ * the source proved it optimal for the subproblem it solved.
+ * Every improvement is also propagated to the shared lower bound.
+ */
+public class Incumbent {
+    private final AtomicReference<Entry> best =
+            new AtomicReference<>(new Entry(Collections.emptyList(), Double.NEGATIVE_INFINITY, false, null));
+    private final AtomicDouble lb;
+
+    public Incumbent(AtomicDouble lb) {
+        this.lb = lb;
+    }
+
+    public boolean offer(List<Unit> solution, double score) {
+        return offer(solution, score, false, null);
+    }
+
+    /**
+     * Replaces the incumbent by <code>solution</code> if its score is greater,
+     * or if it is equal and only the new solution is proven optimal.
+     *
+     * @param isOptimal true if <code>source</code> proved the solution optimal.
+     * @param source    name of the worker, solver or heuristic which found the solution.
+     * @return true if the incumbent was replaced.
+     */
+    public boolean offer(List<Unit> solution, double score, boolean isOptimal, String source) {
+        Entry current = best.get();
+        if (!current.isWorse(score, isOptimal)) {
+            return false;
+        }
+        Entry next = new Entry(Collections.unmodifiableList(new ArrayList<>(solution)), score, isOptimal, source);
+        while (current.isWorse(score, isOptimal)) {
+            if (best.compareAndSet(current, next)) {
+                lb.updateMax(score);
+                return true;
+            }
+            current = best.get();
+        }
+        return false;
+    }
+
+    public double score() {
+        return best.get().score;
+    }
+
+    public List<Unit> solution() {
+        return best.get().solution;
+    }
+
+    public boolean isOptimal() {
+        return best.get().isOptimal;
+    }
+
+    /**
+     * @return name of the source of the incumbent, null if it is unknown or nothing was offered.
+     */
+    public String source() {
+        return best.get().source;
+    }
+
+    private static class Entry {
+        final List<Unit> solution;
+        final double score;
+        final boolean isOptimal;
+        final String source;
+
+        Entry(List<Unit> solution, double score, boolean isOptimal, String source) {
+            this.solution = solution;
+            this.score = score;
+            this.isOptimal = isOptimal;
+            this.source = source;
+        }
+
+        boolean isWorse(double score, boolean isOptimal) {
+            return score > this.score || score == this.score && isOptimal && !this.isOptimal;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import ru.itmo.ctlab.virgo.sgmwcs.Signals;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Connectivity-preserving local search for SGMWCS solutions.
+ * Score of a solution counts every signal once, so moves are evaluated
+ * against a reference counter of signals held by the current solution.
+ */
+class LocalSearch {
+    private static final double EPS = 1e-9;
+
+    private final Graph graph;
+    private final Signals signals;
+    private final Node fixed;
+    private final Set<Node> nodes = new LinkedHashSet<>();
+    private final Set<Edge> edges = new LinkedHashSet<>();
+    private int[] refs;
+    private double score;
+
+    /**
+     * @param solution connected set of units of <code>graph</code>
+     * @param fixed    node which is never dropped, may be <code>null</code>
+     */
+    LocalSearch(Graph graph, Signals signals, Collection<Unit> solution, Node fixed) {
+        this.graph = graph;
+        this.signals = signals;
+        this.fixed = fixed;
+        this.refs = new int[signals.size()];
+        for (Unit u : solution) {
+            if (u instanceof Node ? nodes.add((Node) u) : edges.add((Edge) u)) {
+                add(u);
+            }
+        }
+    }
+
+    double score() {
+        return score;
+    }
+
+    List<Unit> solution() {
+        List<Unit> res = new ArrayList<>(nodes);
+        res.addAll(edges);
+        return res;
+    }
+
+    /**
+     * Applies improving moves until none is left or <code>deadline</code>
+     * (in terms of {@link System#nanoTime()}) passes.
+     */
+    List<Unit> run(long deadline) {
+        if (nodes.isEmpty()) {
+            return solution();
+        }
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            double before = score;
+            addVertices();
+            optimizeEdges();
+            while (System.nanoTime() < deadline && drop()) {
+                optimizeEdges();
+            }
+            improved = score > before + EPS || swap(deadline);
+        }
+        return solution();
+    }
+
+    /**
+     * Removes about <code>fraction</code> of solution vertices closest to a random
+     * one and keeps the part of the rest connected to the fixed (or the heaviest)
+     * vertex. Used to escape local optima found by {@link #run(long)}.
+     */
+    void perturb(Random random, double fraction) {
+        if (nodes.size() < 2) {
+            return;
+        }
+        Map<Node, List<Node>> adj = new HashMap<>();
+        for (Edge e : edges) {
+            Node u = graph.getEdgeSource(e), v = graph.getEdgeTarget(e);
+            adj.computeIfAbsent(u, k -> new ArrayList<>()).add(v);
+            adj.computeIfAbsent(v, k -> new ArrayList<>()).add(u);
+        }
+        List<Node> list = new ArrayList<>(nodes);
+        int size = Math.max(1, (int) (fraction * list.size()));
+        list.remove(fixed);
+        Set<Node> ball = bfs(list.get(random.nextInt(list.size())), adj, v -> v != fixed, size);
+        Set<Node> rest = new HashSet<>(nodes);
+        rest.removeAll(ball);
+        if (rest.isEmpty()) {
+            rest.add(ball.iterator().next());
+        }
+        Node anchor = fixed != null && rest.contains(fixed) ? fixed
+                : rest.stream().max(Comparator.comparingDouble(signals::weight)).get();
+        Set<Node> kept = bfs(anchor, adj, rest::contains, rest.size());
+        nodes.retainAll(kept);
+        edges.removeIf(e -> !kept.contains(graph.getEdgeSource(e)) || !kept.contains(graph.getEdgeTarget(e)));
+        refs = new int[signals.size()];
+        score = 0;
+        nodes.forEach(this::add);
+        edges.forEach(this::add);
+    }
+
+    private static Set<Node> bfs(Node from, Map<Node, List<Node>> adj, Predicate<Node> allowed, int limit) {
+        Set<Node> visited = new LinkedHashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        visited.add(from);
+        queue.add(from);
+        while (!queue.isEmpty() && visited.size() < limit) {
+            for (Node u : adj.getOrDefault(queue.poll(), Collections.emptyList())) {
+                if (visited.size() < limit && allowed.test(u) && visited.add(u)) {
+                    queue.add(u);
+                }
+            }
+        }
+        return visited;
+    }
+
+    private void add(Unit u) {
+        for (int s : signals.unitSets(u)) {
+            if (refs[s]++ == 0) {
+                score += signals.weight(s);
+            }
+        }
+    }
+
+    private void remove(Unit u) {
+        for (int s : signals.unitSets(u)) {
+            if (--refs[s] == 0) {
+                score -= signals.weight(s);
+            }
+        }
+    }
+
+    private double gain(Collection<? extends Unit> units) {
+        double before = score;
+        units.forEach(this::add);
+        double res = score - before;
+        units.forEach(this::remove);
+        score = before;
+        return res;
+    }
+
+    private double loss(Collection<? extends Unit> units) {
+        double before = score;
+        units.forEach(this::remove);
+        double res = before - score;
+        units.forEach(this::add);
+        score = before;
+        return res;
+    }
+
+    private void addVertices() {
+        Deque<Node> queue = new ArrayDeque<>();
+        for (Node v : nodes) {
+            queue.addAll(graph.neighborListOf(v));
+        }
+        while (!queue.isEmpty()) {
+            Node v = queue.poll();
+            if (nodes.contains(v)) continue;
+            List<Edge> toS = new ArrayList<>();
+            for (Edge e : graph.edgesOf(v)) {
+                if (nodes.contains(graph.getOppositeVertex(v, e))) {
+                    toS.add(e);
+                }
+            }
+            if (toS.isEmpty()) continue;
+            List<Unit> move = new ArrayList<>();
+            move.add(v);
+            Edge best = null;
+            double bestGain = Double.NEGATIVE_INFINITY;
+            for (Edge e : toS) {
+                move.add(e);
+                double g = gain(move);
+                move.remove(e);
+                if (g > bestGain) {
+                    bestGain = g;
+                    best = e;
+                }
+            }
+            move.add(best);
+            for (Edge e : toS) {
+                if (e == best) continue;
+                move.add(e);
+                double g = gain(move);
+                if (g > bestGain + EPS) {
+                    bestGain = g;
+                } else {
+                    move.remove(e);
+                }
+            }
+            if (bestGain > EPS) {
+                nodes.add(v);
+                for (Unit u : move) {
+                    add(u);
+                    if (u instanceof Edge) {
+                        edges.add((Edge) u);
+                    }
+                }
+                queue.addAll(graph.neighborListOf(v));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds edges between solution vertices: first edges with positive
+     * gain, then the best remaining ones needed for connectivity (Kruskal).
+     */
+    private void optimizeEdges() {
+        Set<Edge> old = new LinkedHashSet<>(edges);
+        double oldScore = score;
+        Set<Edge> candidates = new LinkedHashSet<>();
+        for (Node u : nodes) {
+            for (Edge e : graph.edgesOf(u)) {
+                if (nodes.contains(graph.getOppositeVertex(u, e))) {
+                    candidates.add(e);
+                }
+            }
+        }
+        edges.forEach(this::remove);
+        edges.clear();
+        Map<Edge, Double> gains = new HashMap<>();
+        for (Edge e : candidates) {
+            gains.put(e, gain(Collections.singletonList(e)));
+        }
+        List<Edge> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingDouble(e -> -gains.get(e)));
+        Map<Node, Node> parent = new HashMap<>();
+        for (Edge e : sorted) {
+            if (gain(Collections.singletonList(e)) > 0) {
+                takeEdge(e, parent);
+            }
+        }
+        for (Edge e : sorted) {
+            if (!edges.contains(e) && find(parent, graph.getEdgeSource(e)) != find(parent, graph.getEdgeTarget(e))) {
+                takeEdge(e, parent);
+            }
+        }
+        if (score < oldScore - EPS) {
+            edges.forEach(this::remove);
+            edges.clear();
+            old.forEach(this::add);
+            edges.addAll(old);
+            score = oldScore;
+        }
+    }
+
+    private void takeEdge(Edge e, Map<Node, Node> parent) {
+        edges.add(e);
+        add(e);
+        parent.put(find(parent, graph.getEdgeSource(e)), find(parent, graph.getEdgeTarget(e)));
+    }
+
+    private static Node find(Map<Node, Node> parent, Node v) {
+        Node r = v;
+        while (parent.containsKey(r) && parent.get(r) != r) {
+            r = parent.get(r);
+        }
+        while (v != r) {
+            Node next = parent.getOrDefault(v, r);
+            parent.put(v, r);
+            v = next;
+        }
+        return r;
+    }
+
+    private class Frame {
+        final Node v;
+        final Edge parentEdge;
+        final Iterator<Edge> it;
+
+        Frame(Node v, Edge parentEdge, Map<Node, List<Edge>> adj) {
+            this.v = v;
+            this.parentEdge = parentEdge;
+            this.it = adj.getOrDefault(v, Collections.emptyList()).iterator();
+        }
+    }
+
+    /**
+     * One DFS over the solution finds articulation points and subtrees
+     * separable at their parent. The candidate (separable subtree or
+     * non-articulation vertex) whose removal gains the most is dropped.
+     *
+     * @return <code>true</code> if something was dropped
+     */
+    private boolean drop() {
+        Map<Node, List<Edge>> adj = new HashMap<>();
+        for (Edge e : edges) {
+            Node u = graph.getEdgeSource(e), v = graph.getEdgeTarget(e);
+            adj.computeIfAbsent(u, k -> new ArrayList<>()).add(e);
+            if (u != v) {
+                adj.computeIfAbsent(v, k -> new ArrayList<>()).add(e);
+            }
+        }
+        Node root = fixed != null && nodes.contains(fixed) ? fixed
+                : nodes.stream().max(Comparator.comparingDouble(signals::weight)).get();
+        Map<Node, Integer> disc = new HashMap<>();
+        Map<Node, Integer> low = new HashMap<>();
+        Map<Node, Integer> finish = new HashMap<>();
+        List<Node> order = new ArrayList<>();
+        Set<Node> articulation = new HashSet<>();
+        List<Node> separable = new ArrayList<>();
+        int rootChildren = 0;
+        Deque<Frame> stack = new ArrayDeque<>();
+        disc.put(root, 0);
+        low.put(root, 0);
+        order.add(root);
+        stack.push(new Frame(root, null, adj));
+        while (!stack.isEmpty()) {
+            Frame f = stack.peek();
+            if (f.it.hasNext()) {
+                Edge e = f.it.next();
+                if (e == f.parentEdge) continue;
+                Node u = graph.getOppositeVertex(f.v, e);
+                Integer du = disc.get(u);
+                if (du == null) {
+                    disc.put(u, order.size());
+                    low.put(u, order.size());
+                    order.add(u);
+                    stack.push(new Frame(u, e, adj));
+                } else {
+                    low.put(f.v, Math.min(low.get(f.v), du));
+                }
+                continue;
+            }
+            stack.pop();
+            finish.put(f.v, order.size() - 1);
+            Frame p = stack.peek();
+            if (p == null) continue;
+            low.put(p.v, Math.min(low.get(p.v), low.get(f.v)));
+            if (low.get(f.v) >= disc.get(p.v)) {
+                separable.add(f.v);
+                if (p.v == root) {
+                    rootChildren++;
+                } else {
+                    articulation.add(p.v);
+                }
+            }
+        }
+        if (rootChildren > 1) {
+            articulation.add(root);
+        }
+        List<Unit> best = null;
+        double bestGain = EPS;
+        for (Node c : separable) {
+            List<Unit> units = new ArrayList<>();
+            Set<Edge> incident = new HashSet<>();
+            for (int i = disc.get(c); i <= finish.get(c); i++) {
+                units.add(order.get(i));
+                incident.addAll(adj.getOrDefault(order.get(i), Collections.emptyList()));
+            }
+            units.addAll(incident);
+            double g = -loss(units);
+            if (g > bestGain) {
+                bestGain = g;
+                best = units;
+            }
+        }
+        if (nodes.size() > 1) {
+            for (Node v : nodes) {
+                if (v == fixed || articulation.contains(v)) continue;
+                List<Unit> units = new ArrayList<>(adj.getOrDefault(v, Collections.emptyList()));
+                units.add(v);
+                double g = -loss(units);
+                if (g > bestGain) {
+                    bestGain = g;
+                    best = units;
+                }
+            }
+        }
+        if (best == null) {
+            return false;
+        }
+        for (Unit u : best) {
+            remove(u);
+            if (u instanceof Node) {
+                nodes.remove(u);
+            } else {
+                edges.remove(u);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tries outside vertices adjacent to at least two solution vertices:
+     * adds such a vertex with all its edges to the solution and keeps the
+     * result only if the following drops make it better.
+     */
+    private boolean swap(long deadline) {
+        Set<Node> candidates = new LinkedHashSet<>();
+        for (Node u : nodes) {
+            for (Node v : graph.neighborListOf(u)) {
+                if (!nodes.contains(v) && graph.neighborListOf(v).stream()
+                        .filter(nodes::contains).count() > 1) {
+                    candidates.add(v);
+                }
+            }
+        }
+        for (Node v : candidates) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Set<Node> savedNodes = new LinkedHashSet<>(nodes);
+            Set<Edge> savedEdges = new LinkedHashSet<>(edges);
+            int[] savedRefs = refs.clone();
+            double savedScore = score;
+            nodes.add(v);
+            add(v);
+            for (Edge e : graph.edgesOf(v)) {
+                if (nodes.contains(graph.getOppositeVertex(v, e)) && edges.add(e)) {
+                    add(e);
+                }
+            }
+            optimizeEdges();
+            while (drop()) {
+                optimizeEdges();
+            }
+            if (score > savedScore + EPS) {
+                return true;
+            }
+            nodes.clear();
+            nodes.addAll(savedNodes);
+            edges.clear();
+            edges.addAll(savedEdges);
+            refs = savedRefs;
+            score = savedScore;
+        }
+        return false;
+    }
+}
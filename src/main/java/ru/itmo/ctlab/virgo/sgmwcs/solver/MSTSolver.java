@@ -13,13 +13,22 @@ public class MSTSolver {
     private final Graph g;
     private final Map<Edge, Double> ws;
     private final Node root;
+    private final Set<Node> nodes;
     private double cost;
     private Set<Edge> res;
 
     public MSTSolver(Graph g, Map<Edge, Double> edgeWeights, Node root) {
+        this(g, edgeWeights, root, g.vertexSet());
+    }
+
+    /**
+     * Spanning tree of the subgraph induced by <code>nodes</code>.
+     */
+    public MSTSolver(Graph g, Map<Edge, Double> edgeWeights, Node root, Set<Node> nodes) {
         this.g = g;
         this.ws = edgeWeights;
         this.root = root;
+        this.nodes = nodes;
     }
 
     public double getCost() {
@@ -38,27 +47,29 @@ public class MSTSolver {
     private Set<Edge> solveTree() {
         double cost = 0.0;
         Set<Edge> res = new HashSet<>();
-        Set<Node> unvisited = new HashSet<>(g.vertexSet());
+        Set<Node> unvisited = new HashSet<>(nodes);
         Node cur = root;
         unvisited.remove(root);
         PriorityQueue<Edge> q =
                 new PriorityQueue<>(Comparator.comparingDouble(ws::get));
-        for (int i = 0; i < g.vertexSet().size() - 1; ++i) {
+        while (!unvisited.isEmpty()) {
             for (Edge e : g.edgesOf(cur)) {
                 Node nbor = g.getOppositeVertex(cur, e);
                 if (unvisited.contains(nbor)) {
                     q.add(e);
                 }
             }
-            final Edge e = q.remove();
-            final Node et = g.getEdgeTarget(e);
-            final Node es = g.getEdgeSource(e);
-            if (unvisited.contains(et) || unvisited.contains(es)) {
-                cost += ws.get(e);
-                res.add(e);
-                cur = unvisited.contains(et) ? et : es;
-                unvisited.remove(cur);
-            }
+            Edge e;
+            Node next;
+            do {
+                e = q.remove();
+                final Node et = g.getEdgeTarget(e);
+                next = unvisited.contains(et) ? et : g.getEdgeSource(e);
+            } while (!unvisited.contains(next));
+            cost += ws.get(e);
+            res.add(e);
+            cur = next;
+            unvisited.remove(cur);
         }
         this.cost = cost;
         return res;
@@ -0,0 +1,143 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import ru.itmo.ctlab.virgo.sgmwcs.Signals;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs primal heuristics on a component concurrently. Each thread cycles
+ * through the strategies starting from its own one, so with four or more
+ * threads all of them run at the same time. Every solution is improved with
+ * {@link LocalSearch} and offered to the shared {@link Incumbent}.
+ * Threads stop at the deadline or once the shared lower bound reaches
+ * the upper bound of the component. Graph and signals are only read.
+ */
+class Portfolio {
+    private static final double PERTURBATION = 0.3;
+
+    enum Strategy {
+        /**
+         * Tree DP over a spanning tree for perturbed edge weights.
+         */
+        TREE,
+        /**
+         * Greedy heuristic of {@link Dijkstra} from a random vertex.
+         */
+        GREEDY,
+        /**
+         * Perturbation of the incumbent.
+         */
+        LOCAL_SEARCH,
+        /**
+         * Local search from a random vertex.
+         */
+        RESTART
+    }
+
+    private final Graph graph;
+    private final Signals signals;
+    private final Node root;
+    private final Incumbent incumbent;
+    private final AtomicDouble lb;
+    private final double upperBound;
+    private final List<Node> vertices;
+
+    /**
+     * @param root vertex which solutions must contain, may be <code>null</code>
+     * @param lb   lower bound shared with other components
+     */
+    Portfolio(Graph graph, Signals signals, Node root, Incumbent incumbent, AtomicDouble lb) {
+        this.graph = graph;
+        this.signals = signals;
+        this.root = root;
+        this.incumbent = incumbent;
+        this.lb = lb;
+        this.upperBound = signals.weightSum(signals.positiveUnitSets(graph.units()));
+        this.vertices = new ArrayList<>(graph.vertexSet());
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} to stop at.
+     */
+    void run(int threads, long seed, long deadline) throws InterruptedException {
+        if (vertices.size() <= 1) {
+            return;
+        }
+        Strategy[] strategies = Strategy.values();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int first = i;
+            Random random = new Random(seed + i);
+            pool.add(new Thread(() -> {
+                try {
+                    for (int k = first; System.nanoTime() < deadline && upperBound > lb.get(); k++) {
+                        step(strategies[k % strategies.length], random, deadline);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "portfolio-" + i));
+        }
+        pool.forEach(Thread::start);
+        for (Thread thread : pool) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private void step(Strategy strategy, Random random, long deadline) {
+        List<Unit> incumbent = this.incumbent.solution();
+        if (root != null && (strategy == Strategy.GREEDY || strategy == Strategy.RESTART)) {
+            // Starts from other vertices would miss the root
+            strategy = Strategy.LOCAL_SEARCH;
+        }
+        if (strategy == Strategy.LOCAL_SEARCH && incumbent.isEmpty()) {
+            strategy = root == null ? Strategy.RESTART : Strategy.TREE;
+        }
+        LocalSearch ls;
+        switch (strategy) {
+            case TREE:
+                ls = new LocalSearch(graph, signals, tree(random), root);
+                break;
+            case GREEDY:
+                ls = new LocalSearch(graph, signals,
+                        new Dijkstra(graph, signals).greedyHeuristic(randomVertex(random)), null);
+                break;
+            case RESTART:
+                ls = new LocalSearch(graph, signals, Collections.singletonList(randomVertex(random)), null);
+                break;
+            default:
+                ls = new LocalSearch(graph, signals, incumbent, root);
+                ls.perturb(random, PERTURBATION);
+        }
+        List<Unit> solution = ls.run(deadline);
+        this.incumbent.offer(solution, signals.sum(solution));
+    }
+
+    private List<Unit> tree(Random random) {
+        Node r = root != null ? root : randomVertex(random);
+        Map<Edge, Double> weights = new HashMap<>();
+        for (Edge e : graph.edgeSet()) {
+            Node u = graph.getEdgeSource(e), v = graph.getEdgeTarget(e);
+            double w = signals.weight(u) / graph.degreeOf(u)
+                    + signals.weight(v) / graph.degreeOf(v) + signals.weight(e);
+            weights.put(e, -w * (1 + PERTURBATION * random.nextGaussian()));
+        }
+        MSTSolver mst = new MSTSolver(graph, weights, r);
+        mst.solve();
+        Graph tree = graph.edgesSubgraph(mst.getEdges());
+        return new ArrayList<>(new TreeSolver(tree, signals).solveRooted(r).units);
+    }
+
+    private Node randomVertex(Random random) {
+        return vertices.get(random.nextInt(vertices.size()));
+    }
+}
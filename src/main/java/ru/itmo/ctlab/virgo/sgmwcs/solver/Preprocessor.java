@@ -7,18 +7,24 @@ import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class Preprocessor {
 
     private Node root = null;
     private int logLevel = 0;
+    private int preprocessLevel;
+
+    private static final int NPVK_MAX_DEGREE = 4;
+    private long npvkTimeLeft = Long.MAX_VALUE;
+    private long npvkVertexTimeLimit = TimeUnit.MILLISECONDS.toNanos(100);
 
 
     public void setLogLevel(int level) {
@@ -56,6 +62,8 @@ public class Preprocessor {
 
     private Node primaryNode;
 
+    private final Map<Node, CnsInfo> cnsCache = new HashMap<>();
+
     public Preprocessor(Graph graph,
                         Signals signals,
                         int numThreads,
@@ -76,6 +84,21 @@ public class Preprocessor {
         this.root = r;
     }
 
+    /**
+     * Sets total time in seconds which npvk rule may spend during preprocessing.
+     */
+    public void setNpvkTimeLimit(double seconds) {
+        this.npvkTimeLeft = seconds == Double.POSITIVE_INFINITY ? Long.MAX_VALUE
+                : (long) (seconds * 1e9);
+    }
+
+    /**
+     * Sets time in seconds after which npvk gives up on a single vertex.
+     */
+    public void setNpvkVertexTimeLimit(double seconds) {
+        this.npvkVertexTimeLimit = (long) (seconds * 1e9);
+    }
+
     private double weight(Unit unit) {
         return signals.weight(unit);
     }
@@ -98,7 +121,7 @@ public class Preprocessor {
     private final Step<Node> leaves = new Step<>(this::leaves, "leaves");
     private final Step<Edge> npe = new Step<>(this::uselessEdges, "npe");
     private final Step<Edge> nnp = new Step<>(this::nnp, "nnp");
-    //private final Step<Node> npv3 = new Step<>(this::npv3, "npv3");
+    private final Step<Node> npvk = new Step<>(this::npvk, "npvk");
 
     public void preprocessBasic() {
         posC();
@@ -113,7 +136,7 @@ public class Preprocessor {
             }
         if (primaryNode != null) {
             new Step<Node>(s ->
-                    negR(primaryNode, primaryNode, new HashSet<>(), s)
+                    negR(primaryNode, s)
                     , "negR").apply(toRemove);
         }
     }
@@ -125,6 +148,7 @@ public class Preprocessor {
         if (preprocessLevel == 0) {
             return;
         }
+        this.preprocessLevel = preprocessLevel;
         removeSelfLoops();
         removeParallelEdges();
         if (preprocessLevel == 1) {
@@ -206,12 +230,12 @@ public class Preprocessor {
             }
         if (primaryNode != null)
             res += new Step<Node>(s ->
-                    negR(primaryNode, primaryNode, new HashSet<>(), s)
+                    negR(primaryNode, s)
                     , "negR").apply(toRemove);
         if (posNode != null && graph.containsVertex(posNode)) {
             final Node pn = posNode;
             res += new Step<Node>(s ->
-                    negR(pn, pn, new HashSet<>(), s)
+                    negR(pn, s)
                     , "negR").apply(toRemove);
         }
         Set<Edge> edgesToRemove = numThreads == 1 ? new HashSet<>() : new ConcurrentSkipListSet<>();
@@ -219,78 +243,193 @@ public class Preprocessor {
         res += nnp.apply(edgesToRemove);
 
         res += npv2.apply(toRemove);
-        // res += npv3.apply(toRemove);
+        if (preprocessLevel > 2) {
+            res += npvk.apply(toRemove);
+        }
         return res;
     }
 
 
-    private boolean negR(Node v, Node r, Set<Node> vis, Set<Node> toRemove) {
-        boolean safe = false;
-        vis.add(v);
-        List<Unit> units = new ArrayList<>(vis);
-        for (Edge e : graph.edgesOf(v)) {
-            double minSum = signals.minSum(units);
-            Node u = graph.getOppositeVertex(v, e);
-            if (vis.contains(u)) {
-                if (u != r && !toRemove.contains(u)) {
-                    safe = true;
+    /**
+     * Iterative DFS from <code>root</code>. A tree child <code>u</code> of <code>v</code>
+     * is removed if its subtree has no back edges to kept nodes and neither <code>u</code>
+     * nor any <code>v - u</code> edge can increase the minimal sum of the nodes entered
+     * before <code>u</code>. A signal is present in that node set iff the first node
+     * holding it was entered no later than <code>v</code>, so each test only looks
+     * at the signals of <code>u</code> and its edges.
+     */
+    private void negR(Node root, Set<Node> toRemove) {
+        Map<Node, Integer> enter = new HashMap<>();
+        int[] firstSeen = new int[signals.size()];
+        Arrays.fill(firstSeen, Integer.MAX_VALUE);
+        Deque<NegRFrame> stack = new ArrayDeque<>();
+        stack.push(new NegRFrame(root, root, negREnter(root, enter, firstSeen)));
+        while (!stack.isEmpty()) {
+            NegRFrame f = stack.peek();
+            if (f.next == f.edges.length) {
+                stack.pop();
+                NegRFrame p = stack.peek();
+                if (p != null) {
+                    boolean res = f.safe || negRKeeps(p, f.v, firstSeen);
+                    if (!res) {
+                        toRemove.add(f.v);
+                    }
+                    p.safe = res || p.safe;
                 }
                 continue;
             }
-            boolean res = negR(u, v, vis, toRemove);
-            units.add(u);
-            if (minSum <= signals.minSum(units) || signals.maxSum(u) > 0) {
-                res = true;
-            } else {
-                minSum = signals.minSum(units);
-                for (Edge edge : graph.getAllEdges(v, u)) {
-                    units.add(edge);
-                    if (minSum <= signals.minSum(units)) {
-                        res = true;
-                    }
-                    units.remove(units.size() - 1);
+            Node u = graph.getOppositeVertex(f.v, f.edges[f.next++]);
+            if (enter.containsKey(u)) {
+                if (u != f.parent && !toRemove.contains(u)) {
+                    f.safe = true;
+                }
+                continue;
+            }
+            stack.push(new NegRFrame(u, f.v, negREnter(u, enter, firstSeen)));
+        }
+    }
+
+    private int negREnter(Node v, Map<Node, Integer> enter, int[] firstSeen) {
+        int time = enter.size() + 1;
+        enter.put(v, time);
+        for (int s : signals.unitSets(v)) {
+            if (firstSeen[s] == Integer.MAX_VALUE) {
+                firstSeen[s] = time;
+            }
+        }
+        return time;
+    }
+
+    private boolean negRKeeps(NegRFrame p, Node u, int[] firstSeen) {
+        Set<Integer> us = new HashSet<>(signals.unitSets(u));
+        if (signals.weightSum(us) > 0) {
+            return true;
+        }
+        double delta = 0;
+        for (int s : us) {
+            if (firstSeen[s] > p.time && signals.isMinSumSignal(s)) {
+                delta += signals.weight(s);
+            }
+        }
+        if (delta >= 0) {
+            return true;
+        }
+        for (Edge edge : graph.getAllEdges(p.v, u)) {
+            double edgeDelta = 0;
+            for (int s : new HashSet<>(signals.unitSets(edge))) {
+                if (firstSeen[s] > p.time && !us.contains(s) && signals.isMinSumSignal(s)) {
+                    edgeDelta += signals.weight(s);
                 }
             }
-            if (!res) {
-                toRemove.add(u);
+            if (edgeDelta >= 0) {
+                return true;
             }
-            safe = res || safe;
-            units.remove(units.size() - 1);
         }
-        return safe;
+        return false;
+    }
+
+    private class NegRFrame {
+        final Node v;
+        final Node parent;
+        final Edge[] edges;
+        final int time;
+        int next;
+        boolean safe;
+
+        NegRFrame(Node v, Node parent, int time) {
+            this.v = v;
+            this.parent = parent;
+            this.time = time;
+            this.edges = graph.edgesOf(v).toArray(new Edge[0]);
+        }
     }
 
 
+    /**
+     * Triangles are found by intersecting sorted neighbour index arrays,
+     * probing the larger array from the smaller one, which gives
+     * O(m * sqrt(m) * log(m)) in total. Positive signals of each unit are
+     * computed once and kept as sorted arrays.
+     */
     private void nnp(Set<Edge> toRemove) {
+        List<Node> nodes = new ArrayList<>(graph.vertexSet());
+        Map<Node, Integer> index = new HashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            index.put(nodes.get(i), i);
+        }
+        int[][] adj = new int[nodes.size()][];
+        for (int i = 0; i < nodes.size(); i++) {
+            adj[i] = graph.neighborListOf(nodes.get(i)).stream()
+                    .mapToInt(index::get).sorted().toArray();
+        }
+        Map<Unit, int[]> positive = new HashMap<>();
+        Function<Unit, int[]> pos = unit -> positive.computeIfAbsent(unit, this::positiveSignals);
         for (Edge e : graph.edgeSet()) {
-            if (signals.minSum(e) > 0) continue;
+            double eMin = signals.minSum(e);
+            if (eMin > 0) continue;
             Node u = graph.getEdgeTarget(e), v = graph.getEdgeSource(e);
-            for (Node n : graph.neighborListOf(v)) {
+            int iu = index.get(u), iv = index.get(v);
+            int[] rest = uncovered(pos.apply(e), pos.apply(u), pos.apply(v));
+            for (int k : intersect(adj[iv], adj[iu])) {
+                if (k == iu || k == iv) continue;
+                Node n = nodes.get(k);
                 Edge eu = graph.getEdge(n, v);
-                if (eu == e || signals.minSum(eu, n) < signals.minSum(e)) continue;
-                if (graph.neighborListOf(n).contains(u)) {
-                    Edge ev = graph.getEdge(n, u);
-                    if (toRemove.contains(eu) || toRemove.contains(ev))
-                        continue;
-                    Set<Integer> pos = signals.positiveUnitSets(e);
-                    double lowest = Math.min(
-                            signals.minSum(eu, ev), signals.minSum(eu, ev, n));
-                    double lowest2 = Math.min(signals.minSum(eu), signals.minSum(ev));
-                    lowest = Math.min(lowest, lowest2);
-                    if (lowest >= signals.minSum(e)
-                            && signals.positiveUnitSets(eu, n, u, v)
-                            .containsAll(pos)
-                            && signals.positiveUnitSets(ev, n, u, v)
-                            .containsAll(pos))
-                        toRemove.add(e);
+                if (signals.minSum(eu, n) < eMin) continue;
+                Edge ev = graph.getEdge(n, u);
+                if (toRemove.contains(eu) || toRemove.contains(ev))
+                    continue;
+                if (uncovered(rest, pos.apply(eu), pos.apply(n)).length != 0
+                        || uncovered(rest, pos.apply(ev), pos.apply(n)).length != 0)
+                    continue;
+                double lowest = Math.min(
+                        signals.minSum(eu, ev), signals.minSum(eu, ev, n));
+                double lowest2 = Math.min(signals.minSum(eu), signals.minSum(ev));
+                if (Math.min(lowest, lowest2) >= eMin) {
+                    toRemove.add(e);
+                    break;
                 }
             }
         }
+    }
 
+    private int[] positiveSignals(Unit unit) {
+        return signals.positiveUnitSets(unit).stream().mapToInt(i -> i).sorted().toArray();
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            return intersect(b, a);
+        }
+        int[] res = new int[a.length];
+        int size = 0;
+        for (int x : a) {
+            if (Arrays.binarySearch(b, x) >= 0) {
+                res[size++] = x;
+            }
+        }
+        return Arrays.copyOf(res, size);
+    }
+
+    /**
+     * @return sorted elements of <code>sigs</code> that are in none of <code>by</code>.
+     */
+    private static int[] uncovered(int[] sigs, int[]... by) {
+        int[] res = new int[sigs.length];
+        int size = 0;
+        outer:
+        for (int s : sigs) {
+            for (int[] b : by) {
+                if (Arrays.binarySearch(b, s) >= 0) {
+                    continue outer;
+                }
+            }
+            res[size++] = s;
+        }
+        return Arrays.copyOf(res, size);
     }
 
     private void negC() {
-        for (Node v : new ArrayList<>(graph.vertexSet())) {
+        for (Node v : new ArrayList<>(graph.verticesOfDegree(2))) {
             if (signals.maxSum(v) <= 0 && graph.degreeOf(v) == 2) {
                 Edge[] edges = graph.edgesOf(v).toArray(new Edge[0]);
                 if (signals.maxSum(edges[1]) > 0 || signals.maxSum(edges[0]) > 0) {
@@ -375,7 +514,7 @@ public class Preprocessor {
 
     private void leaves(Set<Node> toRemove) {
         Map<Node, List<Unit>> toAbsorb = new HashMap<>();
-        for (Node leaf : graph.vertexSet()) {
+        for (Node leaf : graph.verticesOfDegree(1)) {
             Set<Edge> edges = graph.edgesOf(leaf);
             if (edges.size() != 1
                     || weight(leaf) == weight(primaryNode)) continue;
@@ -413,41 +552,98 @@ public class Preprocessor {
         return graph.getAllEdges(u, v).stream().anyMatch(this::positive);
     }
 
-    private Stream<Node> positiveNeighbors(Node v) {
-        return graph.neighborListOf(v).stream()
-                .filter(n -> positive(n) && positiveEdge(n, v));
-//                .filter(n -> signals.minSum(n, graph.getEdge(n, v)) >= 0);
-    }
-
     private void cns(Set<Node> toRemove) {
         Set<Node> vertexSet = graph.vertexSet();
         Set<Node> w;
         for (Node v : vertexSet) {
             if (toRemove.contains(v)) continue;
-            double vWorst = signals.minSum(v);
-            w = positiveNeighbors(v)
-                    .collect(Collectors.toSet());
+            double vWorst = cnsInfo(v).minSum;
+            w = new HashSet<>();
             w.add(v);
-            final Set<Integer> ws = signals.unitSets(w);
-            Set<Node> wnbs = w.stream()
-                    .flatMap(n -> graph.neighborListOf(n).stream())
-                    .collect(Collectors.toSet());
+            long wMask = bit(v.getNum());
+            long wsMask = cnsInfo(v).signalsMask;
+            for (Node n : cnsInfo(v).neighbors) {
+                if (!toRemove.contains(n) && cnsInfo(n).minSum >= 0 && positiveEdge(n, v)) {
+                    w.add(n);
+                    wMask |= bit(n.getNum());
+                    wsMask |= cnsInfo(n).signalsMask;
+                }
+            }
+            Set<Integer> ws = null;
+            Set<Node> wnbs = new HashSet<>();
+            for (Node n : w) {
+                wnbs.addAll(cnsInfo(n).neighbors);
+            }
+            Set<Node> checked = new HashSet<>();
             for (Node n : wnbs) {
-                List<Node> neighbors = graph.neighborListOf(n);
-                for (Node r : neighbors) {
-                    if (w.contains(r) || r == root) continue;
-                    Set<Edge> edges = graph.edgesOf(r);
-                    Set<Integer> rs = signals.positiveUnitSets(edges);
-                    rs.addAll(signals.positiveUnitSets(r));
-                    double bestSum = signals.minSum(r);
-                    if (vWorst >= bestSum && ws.containsAll(rs)
-                            && w.containsAll(graph.neighborListOf(r)))
+                for (Node r : cnsInfo(n).neighbors) {
+                    if (w.contains(r) || r == root || !checked.add(r)) continue;
+                    CnsInfo ri = cnsInfo(r);
+                    if (vWorst < ri.minSum
+                            || (ri.positiveMask & ~wsMask) != 0
+                            || (ri.neighborsMask & ~wMask) != 0) continue;
+                    if (ws == null) {
+                        ws = signals.unitSets(w);
+                    }
+                    if (ws.containsAll(ri.positive) && w.containsAll(ri.neighbors))
                         toRemove.add(r);
                 }
             }
         }
     }
 
+    private CnsInfo cnsInfo(Node v) {
+        CnsInfo info = cnsCache.get(v);
+        if (info == null || info.stamp != graph.stampOf(v)) {
+            info = new CnsInfo(v);
+            cnsCache.put(v, info);
+        }
+        return info;
+    }
+
+    private static long bit(int num) {
+        return 1L << (num & 63);
+    }
+
+    /**
+     * Neighbourhood and signals of a vertex used by cns. Masks are
+     * one-bit-per-element signatures: a set can only contain another
+     * if its mask covers the other's mask.
+     * Entries are dropped on absorb and revalidated by graph stamps.
+     */
+    private class CnsInfo {
+        final long stamp;
+        final double minSum;
+        final Set<Node> neighbors;
+        final Set<Integer> positive;
+        final long neighborsMask;
+        final long positiveMask;
+        final long signalsMask;
+
+        CnsInfo(Node v) {
+            stamp = graph.stampOf(v);
+            minSum = signals.minSum(v);
+            neighbors = new LinkedHashSet<>(graph.neighborListOf(v));
+            positive = signals.positiveUnitSets(graph.edgesOf(v));
+            positive.addAll(signals.positiveUnitSets(v));
+            long mask = 0;
+            for (Node n : neighbors) {
+                mask |= bit(n.getNum());
+            }
+            neighborsMask = mask;
+            mask = 0;
+            for (int s : positive) {
+                mask |= bit(s);
+            }
+            positiveMask = mask;
+            mask = 0;
+            for (int s : signals.unitSets(v)) {
+                mask |= bit(s);
+            }
+            signalsMask = mask;
+        }
+    }
+
     private void uselessEdges(Set<Edge> toRemove) {
         ExecutorService executor;
         if (numThreads > 1) {
@@ -489,7 +685,7 @@ public class Preprocessor {
 
     private void npv2(Set<Node> toRemove) {
         Dijkstra dijkstra = new Dijkstra(graph, signals);
-        for (Node n : graph.vertexSet()) {
+        for (Node n : graph.verticesOfDegree(2)) {
             if (n == primaryNode) continue;
             if (!checkNeg(n)) continue;
             if (graph.neighborListOf(n).stream().anyMatch(toRemove::contains)) continue;
@@ -499,33 +695,55 @@ public class Preprocessor {
         }
 
     }
-    /*  unused now -- too complex
-    private void npv3(Set<Node> toRemove) {
-        npvClique(3, toRemove);
-    }
-
-    private void npv4(Set<Node> toRemove) {
-        npvClique(4, toRemove);
-    }
-
-    private void npvClique(int maxK, Set<Node> toRemove) {
-        Set<Node> nodes = new HashSet<>(graph.vertexSet());
-        for (Node v : graph.vertexSet()) {
-            // if (!negWithEdges(v)) continue;
-            List<Node> delta = graph.neighborListOf(v);
-            if (delta.size() <= maxK && delta.size() >= 2) {
-                nodes.remove(v);
-                boolean res = new Dijkstra(
-                        graph.subgraph(nodes), signals
-                ).solveClique(v, new HashSet<>(delta)
-                );
-                if (res) {
-                    toRemove.add(v);
+    private void npvk(Set<Node> toRemove) {
+        if (npvkTimeLeft <= 0) return;
+        long start = System.nanoTime();
+        long deadline = npvkTimeLeft == Long.MAX_VALUE ? Long.MAX_VALUE : start + npvkTimeLeft;
+        List<Node> candidates = new ArrayList<>();
+        for (int d = 3; d <= NPVK_MAX_DEGREE; d++) {
+            for (Node v : graph.verticesOfDegree(d)) {
+                if (v != root && graph.neighborListOf(v).size() > 2) {
+                    candidates.add(v);
                 }
-                nodes.add(v);
             }
         }
-    }*/
+        ExecutorService executor;
+        if (numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads);
+            // Remove nodes marked as deleted
+            // in internal graph representation
+            graph.subgraph(graph.vertexSet());
+        } else executor = new Utils.CurrentThreadExecutorService();
+        Map<Node, Set<Node>> witnesses = new ConcurrentHashMap<>();
+        for (Node v : candidates) {
+            executor.execute(() -> {
+                long now = System.nanoTime();
+                if (now > deadline) return;
+                Set<Node> w = new Dijkstra(graph, signals)
+                        .solveClique(v, Math.min(deadline, now + npvkVertexTimeLimit));
+                if (w != null) {
+                    witnesses.put(v, w);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ignored) {
+        }
+        // Vertices are tested independently, so a removed vertex
+        // must not lie on the replacement paths of another one.
+        Set<Node> used = new HashSet<>();
+        for (Node v : candidates) {
+            Set<Node> w = witnesses.get(v);
+            if (w == null || used.contains(v) || w.stream().anyMatch(toRemove::contains)) continue;
+            toRemove.add(v);
+            used.addAll(w);
+        }
+        if (npvkTimeLeft != Long.MAX_VALUE) {
+            npvkTimeLeft -= System.nanoTime() - start;
+        }
+    }
 
     private boolean checkNeg(Node n) {
         return graph.degreeOf(n) == 2 && negWithEdges(n); //signals.maxSum(n) + signals.maxSum(graph.edgesOf(n)) <= 0);
@@ -543,5 +761,10 @@ public class Preprocessor {
     private void absorb(Unit who, Unit whom) {
         who.absorb(whom);
         signals.join(whom, who);
+        if (who instanceof Node) {
+            cnsCache.remove(who);
+        } else if (graph.containsEdge((Edge) who)) {
+            graph.disjointVertices((Edge) who).forEach(cnsCache::remove);
+        }
     }
 }
\ No newline at end of file
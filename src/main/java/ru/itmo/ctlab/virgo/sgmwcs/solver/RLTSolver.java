@@ -29,7 +29,7 @@ public class RLTSolver implements RootedSolver {
     private Map<Integer, IloNumVar> s;
     private Collection<Unit> initialSolution;
     private TimeLimit tl;
-    private final int threads;
+    private int threads;
     private int logLevel;
     private Graph graph;
     private Signals signals;
@@ -39,6 +39,7 @@ public class RLTSolver implements RootedSolver {
     private final int considerCuts;
     private AtomicDouble lb;
     private boolean isLBShared;
+    private Incumbent incumbent;
     private IloNumVar sum;
     private boolean solutionIsTree;
 
@@ -67,6 +68,14 @@ public class RLTSolver implements RootedSolver {
         this.root = root;
     }
 
+    @Override
+    public void setThreadsNum(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+    }
+
     @Override
     public List<Unit> solve(Graph g, Signals s) throws SolverException {
         this.graph = g;
@@ -126,7 +135,8 @@ public class RLTSolver implements RootedSolver {
             } else System.out.println("Conflict not refined");
             cplex.exportModel("../model.lp"); */
             boolean solFound = cplex.solve();
-            if (cplex.getCplexStatus() != CplexStatus.AbortTimeLim) {
+            CplexStatus status = cplex.getCplexStatus();
+            if (status != CplexStatus.AbortTimeLim && status != CplexStatus.AbortUser) {
                 isSolvedToOptimality = true;
             }
             if (solFound) {
@@ -251,10 +261,11 @@ public class RLTSolver implements RootedSolver {
     }
 
     private void tuning(IloCplex cplex) throws IloException {
-        if (isLBShared) {
+        if (isLBShared || incumbent != null) {
             cplex.use(new MIPCallback(logLevel == 0));
         }
 
+        cplex.use(new CancelCallback());
         cplex.setParam(Param.Emphasis.MIP, 1);
         cplex.setParam(Param.Threads, threads);
         cplex.setParam(Param.Parallel, -1);
@@ -366,6 +377,13 @@ public class RLTSolver implements RootedSolver {
         isLBShared = true;
     }
 
+    /**
+     * Sets the store to which solutions found by CPLEX are published while it runs.
+     */
+    public void setIncumbent(Incumbent incumbent) {
+        this.incumbent = incumbent;
+    }
+
     private void addConstraints() throws IloException {
         sumConstraints();
         otherConstraints();
@@ -662,6 +680,33 @@ public class RLTSolver implements RootedSolver {
                     System.out.println("Found new solution: " + getObjValue());
                 }
             }
+            if (incumbent != null) {
+                // Callbacks may run in several threads, so the graph isn't iterated here
+                List<Unit> solution = new ArrayList<>();
+                for (Map.Entry<Node, IloNumVar> node : y.entrySet()) {
+                    if (getValue(node.getValue()) > 0.5) {
+                        solution.add(node.getKey());
+                    }
+                }
+                for (Map.Entry<Edge, IloNumVar> edge : w.entrySet()) {
+                    if (getValue(edge.getValue()) > 0.5) {
+                        solution.add(edge.getKey());
+                    }
+                }
+                incumbent.offer(solution, signals.sum(solution), false, "CPLEX");
+            }
+        }
+    }
+
+    /**
+     * Stops optimization when the time limit is cancelled.
+     */
+    private class CancelCallback extends MIPInfoCallback {
+        @Override
+        protected void main() throws IloException {
+            if (tl.isCancelled()) {
+                abort();
+            }
         }
     }
 }
@@ -9,4 +9,6 @@ public interface RootedSolver extends Solver {
     void setRoot(Node root);
 
     void setInitialSolution(Collection<Unit> sol);
+
+    void setThreadsNum(int threads);
 }
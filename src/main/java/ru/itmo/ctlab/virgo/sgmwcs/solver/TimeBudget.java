@@ -0,0 +1,40 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+
+/**
+ * Splits time left until a common deadline between component workers.
+ * A worker registers the size of its component and is granted a share of the
+ * remaining time proportional to it among components not finished yet. Time left
+ * by workers which finished early is therefore given to the ones asking later.
+ */
+class TimeBudget {
+    private final TimeLimit tl;
+    private final int threads;
+    private double pending;
+
+    /**
+     * @param tl      common time limit.
+     * @param threads number of workers running simultaneously.
+     */
+    TimeBudget(TimeLimit tl, int threads) {
+        this.tl = tl;
+        this.threads = threads;
+    }
+
+    synchronized void register(double size) {
+        pending += size;
+    }
+
+    synchronized void release(double size) {
+        pending = Math.max(0.0, pending - size);
+    }
+
+    /**
+     * @return sub-limit of the common one for a registered component of the given size.
+     */
+    synchronized TimeLimit grant(double size) {
+        double share = pending <= size ? 1.0 : Math.min(1.0, threads * size / pending);
+        return tl.subLimit(share);
+    }
+}
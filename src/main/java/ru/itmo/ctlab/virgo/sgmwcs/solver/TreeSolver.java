@@ -1,5 +1,6 @@
 package ru.itmo.ctlab.virgo.sgmwcs.solver;
 
+import ru.itmo.ctlab.virgo.TimeLimit;
 import ru.itmo.ctlab.virgo.sgmwcs.Signals;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
@@ -10,81 +11,345 @@ import java.util.*;
 
 /**
  * Created by Nikolay Poperechnyi on 17.03.18.
+ * <p>
+ * Dynamic programming over a tree. Signals of a single unit are summed into its weight,
+ * while signals shared by several units are kept in a bitmask of DP states, so every
+ * signal is counted once. Only {@link #MAX_SHARED} shared signals with the largest
+ * absolute weights are kept in the mask (fewer for large trees), the rest are counted
+ * for every unit and the result is then a heuristic one.
  */
-public class TreeSolver {
+public class TreeSolver implements RootedSolver {
+    static final int MAX_SHARED = 8;
+    /**
+     * Limits on the number of DP table entries and on the number of pairs
+     * of masks merged over all edges.
+     */
+    private static final long MAX_STATES = 1 << 22;
+    private static final long MAX_MERGES = 1 << 28;
 
     class Solution {
         Set<Unit> units;
 
-        Solution() {
-            this.units = new HashSet<>();
-        }
-
-        Set<Integer> sets() {
-            return s.unitSets(units);
-        }
-
         Solution(Set<Unit> units) {
             this.units = units;
         }
 
     }
 
-    private final Graph g;
-    private final Signals s;
-    private Set<Unit> withoutRoot;
-    private Set<Unit> withRoot;
+    private Graph g;
+    private Signals s;
+    private Node root;
+    private TimeLimit tl = new TimeLimit(Double.POSITIVE_INFINITY);
+    private AtomicDouble lb = new AtomicDouble(Double.NEGATIVE_INFINITY);
+    private boolean isSolvedToOptimality;
 
-    public Set<Unit> solutionWithoutRoot() {
-        return withoutRoot;
-    }
+    private List<Node> order;
+    private Map<Node, Integer> index;
+    private int[] parent;
+    private Edge[] parentEdge;
+    private List<List<Integer>> children;
+    private double[] add;
+    private int[] mask;
+    private double[] maskWeight;
+    private List<List<double[]>> tables;
 
-    public Set<Unit> solutionWithRoot() {
-        return withRoot;
+    public TreeSolver() {
     }
 
-
     public TreeSolver(Graph g, Signals s) {
         this.g = g;
         this.s = s;
     }
 
+    /**
+     * @return true if <code>g</code> is a tree which is solved exactly.
+     */
+    public static boolean isSolvable(Graph g, Signals s) {
+        int n = g.vertexSet().size();
+        return g.edgeSet().size() == n - 1 && g.connectedSets().size() == 1
+                && sharedSignals(g, s).size() <= maskSize(n);
+    }
+
+    /**
+     * @return the best subtree containing <code>root</code>.
+     */
     public Solution solveRooted(Node root) {
-        return solve(root, null, Collections.emptySet());
-    }
-
-    private Solution solve(Node root, Node parent, Set<Integer> parentSets) {
-        List<Node> nodes = g.neighborListOf(root);
-        assert (parent == null || nodes.contains(parent));
-        Set<Unit> rootSet = new HashSet<>();
-        rootSet.add(root);
-        Solution nonEmpty = new Solution(rootSet);
-        Solution empty = new Solution();
-        if (parent != null) {
-            Edge e = g.getEdge(root, parent);
-            nodes.remove(parent);
-            rootSet.add(e);
-        }
-        if (nodes.isEmpty()
-                && s.minSum(root) < 0
-                && parentSets.containsAll(
-                s.positiveUnitSets(nonEmpty.units))) {
-            return empty;
-        } else {
-            List<Solution> childSols = new ArrayList<>();
-            Set<Integer> signals = new HashSet<>(nonEmpty.sets());
-            signals.addAll(parentSets);
-            for (Node node : nodes) {
-                childSols.add(solve(node, root, signals));
+        return new Solution(solve(root));
+    }
+
+    @Override
+    public List<Unit> solve(Graph graph, Signals signals) {
+        g = graph;
+        s = signals;
+        Set<Unit> best = solve(root);
+        if (root == null && s.sum(best) < 0) {
+            best = Collections.emptySet();
+        }
+        lb.updateMax(s.sum(best));
+        return new ArrayList<>(best);
+    }
+
+    private Set<Unit> solve(Node root) {
+        isSolvedToOptimality = false;
+        if (g.vertexSet().isEmpty()) {
+            return Collections.emptySet();
+        }
+        Node start = root != null ? root : g.vertexSet().iterator().next();
+        buildTree(start);
+        computeWeights();
+        int full = maskWeight.length;
+        tables = new ArrayList<>();
+        for (int i = 0; i < order.size(); i++) {
+            tables.add(null);
+        }
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int bestV = -1, bestMask = -1;
+        for (int i = order.size() - 1; i >= 0; i--) {
+            int v = i;
+            List<double[]> prefix = new ArrayList<>();
+            double[] table = new double[full];
+            Arrays.fill(table, Double.NEGATIVE_INFINITY);
+            table[mask[v]] = add[v];
+            prefix.add(table);
+            for (int c : children.get(v)) {
+                double[] sub = last(c);
+                int[] reachable = reachable(sub);
+                int e = edgeIndex(c);
+                double[] next = table.clone();
+                for (int a = 0; a < full; a++) {
+                    if (table[a] == Double.NEGATIVE_INFINITY) {
+                        continue;
+                    }
+                    for (int b : reachable) {
+                        double h = sub[b] + add[e];
+                        int m = a | b | mask[e];
+                        if (table[a] + h > next[m]) {
+                            next[m] = table[a] + h;
+                        }
+                    }
+                }
+                table = next;
+                prefix.add(table);
             }
-            for (Solution childSol: childSols) {
-                Set<Integer> childSets = new HashSet<>(childSol.sets());
-                childSets.addAll(signals);
-                if (s.weightSum(childSets) >= s.weightSum(signals)) {
-                    nonEmpty.units.addAll(childSol.units);
+            tables.set(v, prefix);
+            if (root == null || i == 0) {
+                for (int m = 0; m < full; m++) {
+                    if (table[m] + maskWeight[m] > bestScore) {
+                        bestScore = table[m] + maskWeight[m];
+                        bestV = v;
+                        bestMask = m;
+                    }
                 }
             }
         }
-        return nonEmpty;
+        Set<Unit> result = restore(bestV, bestMask);
+        tables = null;
+        return result;
+    }
+
+    private void buildTree(Node start) {
+        order = new ArrayList<>();
+        index = new HashMap<>();
+        order.add(start);
+        index.put(start, 0);
+        List<Integer> parents = new ArrayList<>();
+        List<Edge> edges = new ArrayList<>();
+        parents.add(-1);
+        edges.add(null);
+        for (int i = 0; i < order.size(); i++) {
+            Node v = order.get(i);
+            for (Edge e : g.edgesOf(v)) {
+                Node u = g.getOppositeVertex(v, e);
+                if (!index.containsKey(u)) {
+                    index.put(u, order.size());
+                    order.add(u);
+                    parents.add(i);
+                    edges.add(e);
+                }
+            }
+        }
+        int n = order.size();
+        parent = new int[n];
+        parentEdge = new Edge[n];
+        children = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            parent[i] = parents.get(i);
+            parentEdge[i] = edges.get(i);
+            children.add(new ArrayList<>());
+        }
+        for (int i = 1; i < n; i++) {
+            children.get(parent[i]).add(i);
+        }
+    }
+
+    /**
+     * Units are numbered as vertices <code>0..n-1</code> followed by parent edges
+     * of vertices <code>1..n-1</code> at <code>n + i - 1</code>.
+     */
+    private void computeWeights() {
+        int n = order.size();
+        List<Unit> units = new ArrayList<>(order);
+        for (int i = 1; i < n; i++) {
+            units.add(parentEdge[i]);
+        }
+        List<Integer> shared = sharedSignals(g, s);
+        int k = Math.min(shared.size(), maskSize(n));
+        isSolvedToOptimality = k == shared.size();
+        Map<Integer, Integer> bit = new HashMap<>();
+        for (int i = 0; i < k; i++) {
+            bit.put(shared.get(i), i);
+        }
+        add = new double[units.size()];
+        mask = new int[units.size()];
+        for (int i = 0; i < units.size(); i++) {
+            for (int sig : new HashSet<>(s.unitSets(units.get(i)))) {
+                if (bit.containsKey(sig)) {
+                    mask[i] |= 1 << bit.get(sig);
+                } else {
+                    add[i] += s.weight(sig);
+                }
+            }
+        }
+        maskWeight = new double[1 << k];
+        for (int m = 1; m < maskWeight.length; m++) {
+            int low = Integer.numberOfTrailingZeros(m);
+            maskWeight[m] = maskWeight[m & (m - 1)] + s.weight(shared.get(low));
+        }
+    }
+
+    /**
+     * @return signals of several units ordered by absolute weight descending.
+     */
+    static List<Integer> sharedSignals(Graph g, Signals s) {
+        Map<Integer, Integer> count = new HashMap<>();
+        for (Unit u : g.units()) {
+            for (int sig : new HashSet<>(s.unitSets(u))) {
+                count.merge(sig, 1, Integer::sum);
+            }
+        }
+        List<Integer> shared = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : count.entrySet()) {
+            if (e.getValue() > 1 && s.weight(e.getKey()) != 0) {
+                shared.add(e.getKey());
+            }
+        }
+        shared.sort(Comparator.comparingDouble(sig -> -Math.abs(s.weight(sig))));
+        return shared;
+    }
+
+    private static int maskSize(int n) {
+        int k = 0;
+        while (k < MAX_SHARED && 2L * n << (k + 1) <= MAX_STATES && (long) n << 2 * (k + 1) <= MAX_MERGES) {
+            k++;
+        }
+        return k;
+    }
+
+    private static int[] reachable(double[] table) {
+        int count = 0;
+        int[] res = new int[table.length];
+        for (int m = 0; m < table.length; m++) {
+            if (table[m] != Double.NEGATIVE_INFINITY) {
+                res[count++] = m;
+            }
+        }
+        return Arrays.copyOf(res, count);
+    }
+
+    private double[] last(int v) {
+        List<double[]> prefix = tables.get(v);
+        return prefix.get(prefix.size() - 1);
+    }
+
+    private int edgeIndex(int v) {
+        return order.size() + v - 1;
+    }
+
+    /**
+     * Walks DP tables down from vertex <code>v</code> with mask <code>m</code>.
+     */
+    private Set<Unit> restore(int v, int m) {
+        Set<Unit> result = new LinkedHashSet<>();
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{v, m});
+        while (!stack.isEmpty()) {
+            int[] top = stack.pop();
+            int u = top[0], cur = top[1];
+            List<double[]> prefix = tables.get(u);
+            List<Integer> cs = children.get(u);
+            result.add(order.get(u));
+            for (int i = cs.size(); i > 0; i--) {
+                double[] before = prefix.get(i - 1);
+                double value = prefix.get(i)[cur];
+                if (before[cur] == value) {
+                    continue;
+                }
+                int c = cs.get(i - 1), e = edgeIndex(c);
+                double[] sub = last(c);
+                int[] found = split(before, sub, e, cur, value);
+                result.add(parentEdge[c]);
+                stack.push(new int[]{c, found[1]});
+                cur = found[0];
+            }
+        }
+        return result;
+    }
+
+    private int[] split(double[] before, double[] sub, int e, int cur, double value) {
+        for (int a = 0; a < before.length; a++) {
+            if ((a | cur) != cur || before[a] == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            for (int b = 0; b < sub.length; b++) {
+                if ((a | b | mask[e]) == cur && before[a] + (sub[b] + add[e]) == value) {
+                    return new int[]{a, b};
+                }
+            }
+        }
+        throw new IllegalStateException("DP table is inconsistent");
+    }
+
+    @Override
+    public boolean isSolvedToOptimality() {
+        return isSolvedToOptimality;
+    }
+
+    @Override
+    public TimeLimit getTimeLimit() {
+        return tl;
+    }
+
+    @Override
+    public void setTimeLimit(TimeLimit tl) {
+        this.tl = tl;
+    }
+
+    @Override
+    public void setLogLevel(int logLevel) {
+    }
+
+    @Override
+    public void setLB(AtomicDouble lb) {
+        this.lb = lb;
+    }
+
+    @Override
+    public AtomicDouble getLB() {
+        return lb;
+    }
+
+    @Override
+    public void setRoot(Node root) {
+        this.root = root;
+    }
+
+    @Override
+    public void setInitialSolution(Collection<Unit> sol) {
+        // DP doesn't need one
+    }
+
+    @Override
+    public void setThreadsNum(int threads) {
+        // single-threaded
     }
 }
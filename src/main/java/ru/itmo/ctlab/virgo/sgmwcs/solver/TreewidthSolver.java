@@ -0,0 +1,173 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+import ru.itmo.ctlab.virgo.sgmwcs.Signals;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
+import ru.itmo.ctlab.virgo.treewidth.TreeDecomposition;
+import ru.itmo.ctlab.virgo.treewidth.TreewidthDP;
+
+import java.util.*;
+
+/**
+ * Exact solver for components of small treewidth based on {@link TreewidthDP}.
+ * Signals shared by several units are tracked in DP states, so there may be
+ * at most {@link #MAX_SHARED} of them. If the time limit runs out, the initial
+ * solution is returned.
+ */
+public class TreewidthSolver implements RootedSolver {
+    static final int MAX_SHARED = 3;
+
+    private final int maxWidth;
+    private Node root;
+    private TimeLimit tl = new TimeLimit(Double.POSITIVE_INFINITY);
+    private AtomicDouble lb = new AtomicDouble(Double.NEGATIVE_INFINITY);
+    private int logLevel;
+    private boolean isSolvedToOptimality;
+    private List<Unit> initialSolution = Collections.emptyList();
+    private Graph decomposed;
+    private List<Node> nodes;
+    private List<Edge> edges;
+    private int[][] ends;
+    private TreeDecomposition td;
+
+    public TreewidthSolver(int maxWidth) {
+        this.maxWidth = Math.min(maxWidth, TreewidthDP.MAX_WIDTH);
+    }
+
+    /**
+     * @return solver for <code>g</code> if width of its decomposition is at most
+     * <code>maxWidth</code> and there are few shared signals, <code>null</code> otherwise.
+     * The decomposition is kept for solving <code>g</code>.
+     */
+    public static TreewidthSolver forGraph(Graph g, Signals s, int maxWidth) {
+        if (maxWidth < 1 || TreeSolver.sharedSignals(g, s).size() > MAX_SHARED) {
+            return null;
+        }
+        TreewidthSolver solver = new TreewidthSolver(maxWidth);
+        solver.decompose(g);
+        return solver.td == null ? null : solver;
+    }
+
+    private void decompose(Graph g) {
+        decomposed = g;
+        nodes = new ArrayList<>(g.vertexSet());
+        edges = new ArrayList<>(g.edgeSet());
+        ends = ends(g, nodes, edges);
+        td = TreeDecomposition.minFill(nodes.size(), ends[0], ends[1], maxWidth);
+    }
+
+    @Override
+    public List<Unit> solve(Graph graph, Signals signals) {
+        isSolvedToOptimality = false;
+        if (graph != decomposed) {
+            decompose(graph);
+        }
+        List<Integer> shared = TreeSolver.sharedSignals(graph, signals);
+        if (td == null || shared.size() > MAX_SHARED) {
+            return initialSolution;
+        }
+        Map<Integer, Integer> bit = new HashMap<>();
+        for (int sig : shared) {
+            bit.put(sig, bit.size());
+        }
+        List<Unit> units = new ArrayList<>(nodes);
+        units.addAll(edges);
+        double[] weights = new double[units.size()];
+        int[] masks = new int[units.size()];
+        for (int i = 0; i < units.size(); i++) {
+            for (int sig : new HashSet<>(signals.unitSets(units.get(i)))) {
+                if (bit.containsKey(sig)) {
+                    masks[i] |= 1 << bit.get(sig);
+                } else {
+                    weights[i] += signals.weight(sig);
+                }
+            }
+        }
+        double[] maskWeights = new double[1 << shared.size()];
+        for (int m = 1; m < maskWeights.length; m++) {
+            int low = Integer.numberOfTrailingZeros(m);
+            maskWeights[m] = maskWeights[m & (m - 1)] + signals.weight(shared.get(low));
+        }
+        TreewidthDP dp = new TreewidthDP(nodes.size(), ends[0], ends[1], weights, masks, maskWeights);
+        if (root != null) {
+            dp.setRoot(nodes.indexOf(root));
+        }
+        if (!dp.solve(td, tl)) {
+            return initialSolution;
+        }
+        isSolvedToOptimality = true;
+        if (logLevel > 0) {
+            System.out.println("Treewidth " + td.width() + " DP found " + dp.score());
+        }
+        List<Unit> result = new ArrayList<>();
+        for (int v : dp.vertices()) {
+            result.add(nodes.get(v));
+        }
+        for (int e : dp.edges()) {
+            result.add(edges.get(e));
+        }
+        lb.updateMax(signals.sum(result));
+        return result;
+    }
+
+    private static int[][] ends(Graph g, List<Node> nodes, List<Edge> edges) {
+        Map<Node, Integer> index = new HashMap<>();
+        for (Node v : nodes) {
+            index.put(v, index.size());
+        }
+        int[][] ends = new int[2][edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            ends[0][i] = index.get(g.getEdgeSource(edges.get(i)));
+            ends[1][i] = index.get(g.getEdgeTarget(edges.get(i)));
+        }
+        return ends;
+    }
+
+    @Override
+    public boolean isSolvedToOptimality() {
+        return isSolvedToOptimality;
+    }
+
+    @Override
+    public TimeLimit getTimeLimit() {
+        return tl;
+    }
+
+    @Override
+    public void setTimeLimit(TimeLimit tl) {
+        this.tl = tl;
+    }
+
+    @Override
+    public void setLogLevel(int logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    @Override
+    public void setLB(AtomicDouble lb) {
+        this.lb = lb;
+    }
+
+    @Override
+    public AtomicDouble getLB() {
+        return lb;
+    }
+
+    @Override
+    public void setRoot(Node root) {
+        this.root = root;
+    }
+
+    @Override
+    public void setInitialSolution(Collection<Unit> sol) {
+        initialSolution = new ArrayList<>(sol);
+    }
+
+    @Override
+    public void setThreadsNum(int threads) {
+        // single-threaded
+    }
+}
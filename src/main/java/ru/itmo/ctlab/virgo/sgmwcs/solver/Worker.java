@@ -1,6 +1,7 @@
 package ru.itmo.ctlab.virgo.sgmwcs.solver;
 
 import ru.itmo.ctlab.virgo.SolverException;
+import ru.itmo.ctlab.virgo.ThreadBudget;
 import ru.itmo.ctlab.virgo.sgmwcs.Signals;
 import ru.itmo.ctlab.virgo.TimeLimit;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
@@ -11,62 +12,258 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class Worker implements Runnable {
+    private static final double LOCAL_SEARCH_TIME = 1.0;
+
     private final Signals signals;
     private final Graph graph;
     private final RootedSolver solver;
     private final Node root;
+    private final double upperBound;
+    private final int size;
+    private TimeBudget budget;
+    private ThreadBudget threads;
+    private Incumbent incumbent;
+    private AtomicDouble lb = new AtomicDouble(Double.NEGATIVE_INFINITY);
     private List<Unit> result = new ArrayList<>();
     private boolean isSolvedToOptimality;
-    private long startTime;
+    private boolean isPruned;
+    private boolean isDominated;
+    private volatile boolean isCancelled;
+    private volatile boolean isFinished;
+    private volatile TimeLimit limit;
+    private int logLevel;
+    private final Random random = new Random(1337);
 
-    public Worker(Graph graph, Node root, Signals signals, RootedSolver solver, long time) {
+    public Worker(Graph graph, Node root, Signals signals, RootedSolver solver) {
         this.solver = solver;
         this.graph = graph;
         this.signals = signals;
         this.root = root;
         isSolvedToOptimality = false;
-        startTime = time;
+        upperBound = upperBound(graph, signals);
+        size = size(graph);
+    }
+
+    /**
+     * Sets lower bound shared by all components. The worker raises it with its result
+     * and skips the component if it can't contain a better solution.
+     */
+    void setLB(AtomicDouble lb) {
+        this.lb = lb;
+    }
+
+    /**
+     * Sets allocator of time for the solver. The component must be registered in it
+     * with its {@link #size(Graph)}, which is released when the worker finishes.
+     */
+    void setBudget(TimeBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the store to which the worker publishes its solutions as soon as they are found.
+     */
+    void setIncumbent(Incumbent incumbent) {
+        this.incumbent = incumbent;
+    }
+
+    /**
+     * Sets allocator of threads for the solver. The worker must be registered in it
+     * and is unregistered when it finishes.
+     */
+    void setThreads(ThreadBudget threads) {
+        this.threads = threads;
+    }
+
+    void setLogLevel(int logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    /**
+     * Stops the worker as its component can't contain a solution better than
+     * the lower bound. The solver is aborted through its time limit and the best
+     * solution found so far is kept.
+     */
+    void cancel() {
+        isCancelled = true;
+        TimeLimit current = limit;
+        if (current != null) {
+            current.cancel();
+        }
     }
 
     @Override
     public void run() {
+        try {
+            if (upperBound <= lb.get()) {
+                isPruned = true;
+                isDominated = true;
+                return;
+            }
+            solve();
+            if (result != null) {
+                lb.updateMax(signals.sum(result));
+                if (signals.sum(result) >= upperBound) {
+                    isSolvedToOptimality = true;
+                }
+            }
+            // cancellation only says the component can't beat the lower bound, not that its result is optimal
+            isDominated = isCancelled;
+            if (result != null) {
+                publish(result, isSolvedToOptimality, solver != null ? name(solver) : "Worker");
+            }
+        } finally {
+            isFinished = true;
+            if (budget != null) {
+                budget.release(size);
+            }
+            if (threads != null) {
+                threads.unregister();
+            }
+        }
+    }
+
+    private void solve() {
         Set<Node> vertexSet = graph.vertexSet();
         if (vertexSet.size() <= 1) {
             result = vertexSet.stream().filter(n -> signals.weight(n) >= 0).collect(Collectors.toList());
+            isSolvedToOptimality = true;
             return;
         }
         final Node treeRoot = Optional.ofNullable(root).orElse(
                 vertexSet.stream().max(Comparator.comparing(signals::weight)).get());
-        List<Unit> sol = new ArrayList<>(new Dijkstra(graph, signals)
-                .greedyHeuristic(treeRoot, new ArrayList<>()));
-        sol.add(treeRoot);
-        sol = Unit.extractAbsorbed(sol)
-                .stream().filter(graph::containsUnit)
-                .collect(Collectors.toList());
+        List<Unit> sol = new ArrayList<>(new Dijkstra(graph, signals).greedyHeuristic(treeRoot));
+        double lsTime = LOCAL_SEARCH_TIME;
+        if (solver != null) {
+            lsTime = Math.min(lsTime, grant().getRemainingTime() * 0.05);
+        }
+        sol = new LocalSearch(graph, signals, sol, root)
+                .run(System.nanoTime() + (long) (lsTime * 1e9));
+        keep(sol, "LocalSearch");
         if (solver != null) try {
-            double tl = solver.getTimeLimit().getRemainingTime() - (System.currentTimeMillis() - startTime) / 1000.0;
-            if (tl <= 0) {
-                isSolvedToOptimality = false;
-                return;
-            }
             solver.setRoot(root);
-            solver.setTimeLimit(new TimeLimit(Math.max(tl, 0.0)));
-            double tlb = signals.sum(sol);
-            double plb = solver.getLB().get();
-            if (tlb >= plb) {
-                System.out.println("heuristic found lb " + tlb);
-                solver.setInitialSolution(sol);
-                solver.getLB().compareAndSet(plb, tlb);
+            double granted = 0;
+            while (true) {
+                TimeLimit limit = grant();
+                double time = limit.getRemainingTime();
+                // The solver is run again only if much more time is left by finished components
+                if (isCancelled || time <= 0 || time < 2 * granted) {
+                    break;
+                }
+                granted = time;
+                this.limit = limit;
+                if (isCancelled) {
+                    limit.cancel();
+                }
+                solver.setTimeLimit(limit);
+                double tlb = signals.sum(sol);
+                double plb = solver.getLB().get();
+                if (tlb >= plb) {
+                    if (logLevel > 0) {
+                        System.out.println("heuristic found lb " + tlb);
+                    }
+                    solver.setInitialSolution(sol);
+                    solver.getLB().compareAndSet(plb, tlb);
+                }
+                int acquired = threads != null ? threads.acquire() : 0;
+                try {
+                    if (acquired > 0) {
+                        solver.setThreadsNum(acquired);
+                    }
+                    sol = solver.solve(graph, signals);
+                } finally {
+                    if (threads != null) {
+                        threads.release(acquired);
+                    }
+                }
+                isSolvedToOptimality = solver.isSolvedToOptimality();
+                keep(sol, name(solver));
+                if (isSolvedToOptimality || !limit.isOver()) {
+                    break;
+                }
             }
-            sol = solver.solve(graph, signals);
-            isSolvedToOptimality = solver.isSolvedToOptimality();
         } catch (SolverException e) {
             result = null;
-            return;
         }
+    }
+
+    private void keep(List<Unit> sol, String source) {
         if (signals.sum(sol) > signals.sum(result)) {
             result = sol;
         }
+        publish(sol, false, source);
+    }
+
+    private void publish(List<Unit> sol, boolean isOptimal, String source) {
+        if (incumbent != null) {
+            incumbent.offer(sol, signals.sum(sol), isOptimal, source);
+        }
+    }
+
+    private static String name(RootedSolver solver) {
+        return solver.getClass().getSimpleName();
+    }
+
+    private TimeLimit grant() {
+        return budget != null ? budget.grant(size) : solver.getTimeLimit();
+    }
+
+    /**
+     * Heuristic mode after {@link #run()}: runs {@link Portfolio} seeded with
+     * the best solution found so far on <code>threads</code> threads.
+     *
+     * @param lb       lower bound shared by all components.
+     * @param deadline {@link System#nanoTime()} to stop at.
+     */
+    void improve(int threads, AtomicDouble lb, long deadline) throws InterruptedException {
+        if (result == null) {
+            return;
+        }
+        // Portfolio starts from the incumbent, so it needs one of this component
+        Incumbent local = new Incumbent(lb);
+        local.offer(result, signals.sum(result));
+        new Portfolio(graph, signals, root, local, lb).run(threads, random.nextLong(), deadline);
+        if (local.score() > signals.sum(result)) {
+            result = local.solution();
+            publish(result, false, "Portfolio");
+        }
+    }
+
+    /**
+     * @return sum of positive signals of the component.
+     */
+    double upperBound() {
+        return upperBound;
+    }
+
+    static double upperBound(Graph graph, Signals signals) {
+        return signals.weightSum(signals.positiveUnitSets(graph.units()));
+    }
+
+    /**
+     * @return number of units of the component used as an estimate of its hardness.
+     */
+    static int size(Graph graph) {
+        return graph.vertexSet().size() + graph.edgeSet().size();
+    }
+
+    boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * @return true if the component was skipped as its upper bound didn't exceed the lower bound.
+     */
+    boolean isPruned() {
+        return isPruned;
+    }
+
+    /**
+     * @return true if the component was pruned or the worker was cancelled, as the component
+     * can't contain a solution better than the lower bound. The result isn't optimal then.
+     */
+    boolean isDominated() {
+        return isDominated;
     }
 
     public List<Unit> getResult() {
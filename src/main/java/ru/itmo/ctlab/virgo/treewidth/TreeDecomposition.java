@@ -0,0 +1,130 @@
+package ru.itmo.ctlab.virgo.treewidth;
+
+import java.util.*;
+
+/**
+ * Tree decomposition given by an elimination ordering of vertices.
+ * Bag of vertex <code>v</code> consists of <code>v</code> and its neighbours
+ * eliminated after it in the graph with fill edges. The parent bag is the bag
+ * of the first of these neighbours, so bags form a forest with a tree per
+ * connected component.
+ */
+public class TreeDecomposition {
+    final int[] order;
+    final int[] position;
+    final int[][] bags;
+    final int[] parent;
+    private final int width;
+
+    private TreeDecomposition(int[] order, int[][] bags) {
+        int n = order.length;
+        this.order = order;
+        this.bags = bags;
+        position = new int[n];
+        for (int i = 0; i < n; i++) {
+            position[order[i]] = i;
+        }
+        parent = new int[n];
+        int w = 0;
+        for (int v = 0; v < n; v++) {
+            parent[v] = -1;
+            for (int u : bags[v]) {
+                if (u != v && (parent[v] < 0 || position[u] < position[parent[v]])) {
+                    parent[v] = u;
+                }
+            }
+            w = Math.max(w, bags[v].length - 1);
+        }
+        width = w;
+    }
+
+    /**
+     * Eliminates a vertex adding the fewest fill edges at each step, ties are broken
+     * by degree. Only vertices of degree at most <code>maxWidth</code> are considered.
+     *
+     * @return decomposition or <code>null</code> if its width exceeds <code>maxWidth</code>.
+     */
+    public static TreeDecomposition minFill(int n, int[] from, int[] to, int maxWidth) {
+        List<Set<Integer>> adj = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            adj.add(new HashSet<>());
+        }
+        for (int e = 0; e < from.length; e++) {
+            if (from[e] != to[e]) {
+                adj.get(from[e]).add(to[e]);
+                adj.get(to[e]).add(from[e]);
+            }
+        }
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0]
+                ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+        for (int v = 0; v < n; v++) {
+            push(queue, adj, v, maxWidth);
+        }
+        boolean[] eliminated = new boolean[n];
+        int[] order = new int[n];
+        int[][] bags = new int[n][];
+        int count = 0;
+        while (!queue.isEmpty()) {
+            int[] top = queue.poll();
+            int v = top[2];
+            Set<Integer> nbs = adj.get(v);
+            if (eliminated[v] || top[1] != nbs.size() || top[0] != fill(adj, v)) {
+                continue;
+            }
+            eliminated[v] = true;
+            order[count++] = v;
+            int[] bag = new int[nbs.size() + 1];
+            bag[0] = v;
+            int i = 1;
+            for (int u : nbs) {
+                bag[i++] = u;
+            }
+            Arrays.sort(bag, 1, bag.length);
+            bags[v] = bag;
+            for (int u : nbs) {
+                Set<Integer> un = adj.get(u);
+                un.remove(v);
+                for (int x : nbs) {
+                    if (x != u) {
+                        un.add(x);
+                    }
+                }
+            }
+            Set<Integer> affected = new HashSet<>(nbs);
+            for (int u : nbs) {
+                affected.addAll(adj.get(u));
+            }
+            nbs.clear();
+            for (int u : affected) {
+                push(queue, adj, u, maxWidth);
+            }
+        }
+        return count < n ? null : new TreeDecomposition(order, bags);
+    }
+
+    private static void push(PriorityQueue<int[]> queue, List<Set<Integer>> adj, int v, int maxWidth) {
+        if (adj.get(v).size() <= maxWidth) {
+            queue.add(new int[]{fill(adj, v), adj.get(v).size(), v});
+        }
+    }
+
+    /**
+     * @return number of non-adjacent pairs of neighbours of <code>v</code>.
+     */
+    private static int fill(List<Set<Integer>> adj, int v) {
+        List<Integer> nbs = new ArrayList<>(adj.get(v));
+        int res = 0;
+        for (int i = 0; i < nbs.size(); i++) {
+            for (int j = i + 1; j < nbs.size(); j++) {
+                if (!adj.get(nbs.get(i)).contains(nbs.get(j))) {
+                    res++;
+                }
+            }
+        }
+        return res;
+    }
+
+    public int width() {
+        return width;
+    }
+}
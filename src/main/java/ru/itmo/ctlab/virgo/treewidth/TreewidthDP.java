@@ -0,0 +1,376 @@
+package ru.itmo.ctlab.virgo.treewidth;
+
+import ru.itmo.ctlab.virgo.TimeLimit;
+
+import java.util.*;
+
+/**
+ * Exact dynamic programming over a {@link TreeDecomposition} for finding
+ * a connected subgraph of maximum score. Units are vertices <code>0..n-1</code>
+ * and edges <code>n..n+m-1</code>. Score of a subgraph is the sum of unit weights
+ * plus the weights of distinct bits of a mask of shared signals held by its units,
+ * so every shared signal counts once.
+ * <p>
+ * State of a bag is the partition of its chosen vertices into connected components
+ * of the partial solution and the mask of shared signals collected so far.
+ * A solution is completed when the last vertex of its only component is forgotten.
+ */
+public class TreewidthDP {
+    /**
+     * Bag size is limited by the number of 4-bit labels in 44 bits of a state key.
+     */
+    public static final int MAX_WIDTH = 10;
+    private static final int LABEL_BITS = 4;
+    private static final int MASK_SHIFT = 44;
+    private static final int CHECK_PERIOD = 64;
+
+    private final int n;
+    private final int[] from;
+    private final int[] to;
+    private final double[] weights;
+    private final int[] masks;
+    private final double[] maskWeights;
+    private final int maskBits;
+    private int root = -1;
+
+    private double score;
+    private Trace best;
+
+    /**
+     * @param weights     weights of vertices followed by weights of edges.
+     * @param masks       masks of shared signals of vertices followed by the ones of edges.
+     * @param maskWeights total weight of signals for every mask.
+     */
+    public TreewidthDP(int n, int[] from, int[] to, double[] weights, int[] masks, double[] maskWeights) {
+        if (maskWeights.length > 1 << (62 - MASK_SHIFT)) {
+            throw new IllegalArgumentException("Too many shared signals");
+        }
+        this.n = n;
+        this.from = from;
+        this.to = to;
+        this.weights = weights;
+        this.masks = masks;
+        this.maskWeights = maskWeights;
+        this.maskBits = Integer.numberOfTrailingZeros(maskWeights.length);
+    }
+
+    /**
+     * Makes solutions contain vertex <code>v</code>.
+     */
+    public void setRoot(int v) {
+        root = v;
+    }
+
+    /**
+     * @return false if the time limit ran out or was cancelled.
+     */
+    public boolean solve(TreeDecomposition td, TimeLimit tl) {
+        if (td.width() > MAX_WIDTH) {
+            throw new IllegalArgumentException("Width " + td.width() + " exceeds " + MAX_WIDTH);
+        }
+        score = root < 0 ? 0 : Double.NEGATIVE_INFINITY;
+        best = null;
+        List<List<Integer>> bagEdges = new ArrayList<>();
+        List<List<Integer>> children = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            bagEdges.add(new ArrayList<>());
+            children.add(new ArrayList<>());
+        }
+        for (int e = 0; e < from.length; e++) {
+            int first = td.position[from[e]] < td.position[to[e]] ? from[e] : to[e];
+            bagEdges.get(first).add(e);
+        }
+        for (int v = 0; v < n; v++) {
+            if (td.parent[v] >= 0) {
+                children.get(td.parent[v]).add(v);
+            }
+        }
+        List<Map<Long, Entry>> messages = new ArrayList<>(Collections.nCopies(n, null));
+        for (int i = 0; i < n; i++) {
+            if (i % CHECK_PERIOD == 0 && tl.isOver()) {
+                return false;
+            }
+            int v = td.order[i];
+            int[] bag = td.bags[v];
+            Map<Long, Entry> table = init(v, bag);
+            for (int e : bagEdges.get(v)) {
+                table = addEdge(table, bag, e);
+            }
+            for (int c : children.get(v)) {
+                table = join(table, bag, messages.get(c), td.bags[c]);
+                messages.set(c, null);
+            }
+            messages.set(v, forget(table, bag));
+        }
+        return true;
+    }
+
+    public double score() {
+        return score;
+    }
+
+    /**
+     * @return vertices of the best solution or an empty array if it is empty.
+     */
+    public int[] vertices() {
+        return units().stream().filter(u -> u < n).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return edges of the best solution.
+     */
+    public int[] edges() {
+        return units().stream().filter(u -> u >= n).mapToInt(u -> u - n).toArray();
+    }
+
+    private Set<Integer> units() {
+        Set<Integer> res = new TreeSet<>();
+        Deque<Trace> stack = new ArrayDeque<>();
+        if (best != null) {
+            stack.push(best);
+        }
+        while (!stack.isEmpty()) {
+            Trace t = stack.pop();
+            if (t.unit >= 0) {
+                res.add(t.unit);
+            }
+            if (t.left != null) {
+                stack.push(t.left);
+            }
+            if (t.right != null) {
+                stack.push(t.right);
+            }
+        }
+        return res;
+    }
+
+    private int unitMask(int unit) {
+        return masks[unit] | (unit == root ? 1 << maskBits : 0);
+    }
+
+    /**
+     * All subsets of the bag with chosen vertices in separate components.
+     * Only the weight of the bag's own vertex is counted here.
+     */
+    private Map<Long, Entry> init(int v, int[] bag) {
+        Map<Long, Entry> table = new HashMap<>();
+        int[] labels = new int[bag.length];
+        for (int set = 0; set < 1 << bag.length; set++) {
+            int label = 0;
+            for (int p = 0; p < bag.length; p++) {
+                labels[p] = (set >> p & 1) == 1 ? ++label : 0;
+            }
+            boolean own = (set & 1) == 1;
+            table.put(key(labels, own ? unitMask(v) : 0),
+                    new Entry(own ? weights[v] : 0, own ? new Trace(v, null, null) : null));
+        }
+        return table;
+    }
+
+    private Map<Long, Entry> addEdge(Map<Long, Entry> table, int[] bag, int e) {
+        int pu = indexOf(bag, from[e]), pv = indexOf(bag, to[e]);
+        Map<Long, Entry> res = new HashMap<>(table);
+        int[] labels = new int[bag.length];
+        for (Map.Entry<Long, Entry> s : table.entrySet()) {
+            decode(s.getKey(), labels);
+            if (labels[pu] == 0 || labels[pv] == 0) {
+                continue;
+            }
+            relabel(labels, labels[pv], labels[pu]);
+            int mask = mask(s.getKey()) | unitMask(n + e);
+            Entry entry = s.getValue();
+            offer(res, key(canonical(labels), mask),
+                    entry.value + weights[n + e], new Trace(n + e, entry.trace, null));
+        }
+        return res;
+    }
+
+    /**
+     * Combines states of the bag with states of a child message, which is defined
+     * on the child's bag without the child's own vertex.
+     */
+    private Map<Long, Entry> join(Map<Long, Entry> table, int[] bag, Map<Long, Entry> message, int[] childBag) {
+        int[] pos = new int[childBag.length - 1];
+        for (int j = 1; j < childBag.length; j++) {
+            pos[j - 1] = indexOf(bag, childBag[j]);
+        }
+        Map<Integer, List<Map.Entry<Long, Entry>>> bySet = new HashMap<>();
+        int[] childLabels = new int[pos.length];
+        for (Map.Entry<Long, Entry> t : message.entrySet()) {
+            decode(t.getKey(), childLabels);
+            bySet.computeIfAbsent(chosen(childLabels), k -> new ArrayList<>()).add(t);
+        }
+        Map<Long, Entry> res = new HashMap<>();
+        int[] labels = new int[bag.length];
+        int[] merged = new int[bag.length];
+        int[] restricted = new int[pos.length];
+        int[] rep = new int[bag.length + 1];
+        for (Map.Entry<Long, Entry> s : table.entrySet()) {
+            decode(s.getKey(), labels);
+            for (int j = 0; j < pos.length; j++) {
+                restricted[j] = labels[pos[j]];
+            }
+            List<Map.Entry<Long, Entry>> compatible = bySet.get(chosen(restricted));
+            if (compatible == null) {
+                continue;
+            }
+            for (Map.Entry<Long, Entry> t : compatible) {
+                decode(t.getKey(), childLabels);
+                System.arraycopy(labels, 0, merged, 0, labels.length);
+                Arrays.fill(rep, -1);
+                for (int j = 0; j < pos.length; j++) {
+                    int c = childLabels[j];
+                    if (c == 0) {
+                        continue;
+                    }
+                    if (rep[c] < 0) {
+                        rep[c] = pos[j];
+                    } else {
+                        relabel(merged, merged[pos[j]], merged[rep[c]]);
+                    }
+                }
+                Entry a = s.getValue(), b = t.getValue();
+                offer(res, key(canonical(merged), mask(s.getKey()) | mask(t.getKey())),
+                        a.value + b.value, concat(a.trace, b.trace));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Removes the bag's own vertex (position 0) from states.
+     */
+    private Map<Long, Entry> forget(Map<Long, Entry> table, int[] bag) {
+        Map<Long, Entry> res = new HashMap<>();
+        int[] labels = new int[bag.length];
+        int[] rest = new int[bag.length - 1];
+        for (Map.Entry<Long, Entry> s : table.entrySet()) {
+            decode(s.getKey(), labels);
+            int own = labels[0];
+            boolean shared = false, others = false;
+            for (int p = 1; p < bag.length; p++) {
+                shared |= own != 0 && labels[p] == own;
+                others |= labels[p] != 0;
+                rest[p - 1] = labels[p];
+            }
+            int mask = mask(s.getKey());
+            Entry entry = s.getValue();
+            if (own != 0 && !shared) {
+                if (!others) {
+                    complete(entry, mask);
+                }
+                continue;
+            }
+            offer(res, key(canonical(rest), mask), entry.value, entry.trace);
+        }
+        return res;
+    }
+
+    private void complete(Entry entry, int mask) {
+        if (root >= 0 && (mask >> maskBits & 1) == 0) {
+            return;
+        }
+        double value = entry.value + maskWeights[mask & (maskWeights.length - 1)];
+        if (value > score) {
+            score = value;
+            best = entry.trace;
+        }
+    }
+
+    private static void offer(Map<Long, Entry> table, long key, double value, Trace trace) {
+        Entry current = table.get(key);
+        if (current == null || current.value < value) {
+            table.put(key, new Entry(value, trace));
+        }
+    }
+
+    private static Trace concat(Trace a, Trace b) {
+        return a == null ? b : b == null ? a : new Trace(-1, a, b);
+    }
+
+    private static int indexOf(int[] bag, int v) {
+        if (bag[0] == v) {
+            return 0;
+        }
+        return Arrays.binarySearch(bag, 1, bag.length, v);
+    }
+
+    private static int chosen(int[] labels) {
+        int res = 0;
+        for (int p = 0; p < labels.length; p++) {
+            if (labels[p] != 0) {
+                res |= 1 << p;
+            }
+        }
+        return res;
+    }
+
+    private static void relabel(int[] labels, int what, int with) {
+        for (int p = 0; p < labels.length; p++) {
+            if (labels[p] == what) {
+                labels[p] = with;
+            }
+        }
+    }
+
+    /**
+     * Renumbers components in order of first appearance.
+     */
+    private static int[] canonical(int[] labels) {
+        int[] map = new int[MAX_WIDTH + 2];
+        int next = 0;
+        for (int p = 0; p < labels.length; p++) {
+            int l = labels[p];
+            if (l != 0) {
+                if (map[l] == 0) {
+                    map[l] = ++next;
+                }
+                labels[p] = map[l];
+            }
+        }
+        return labels;
+    }
+
+    private static long key(int[] labels, int mask) {
+        long key = (long) mask << MASK_SHIFT;
+        for (int p = 0; p < labels.length; p++) {
+            key |= (long) labels[p] << (LABEL_BITS * p);
+        }
+        return key;
+    }
+
+    private static void decode(long key, int[] labels) {
+        for (int p = 0; p < labels.length; p++) {
+            labels[p] = (int) (key >> (LABEL_BITS * p) & ((1 << LABEL_BITS) - 1));
+        }
+    }
+
+    private static int mask(long key) {
+        return (int) (key >>> MASK_SHIFT);
+    }
+
+    private static class Entry {
+        final double value;
+        final Trace trace;
+
+        Entry(double value, Trace trace) {
+            this.value = value;
+            this.trace = trace;
+        }
+    }
+
+    /**
+     * Units chosen by a partial solution as a tree of joined parts.
+     */
+    private static class Trace {
+        final int unit;
+        final Trace left;
+        final Trace right;
+
+        Trace(int unit, Trace left, Trace right) {
+            this.unit = unit;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ru.itmo.ctlab.gmwcs.solver
+
+import ru.itmo.ctlab.virgo.gmwcs.graph.Edge
+import ru.itmo.ctlab.virgo.gmwcs.graph.Elem
+import ru.itmo.ctlab.virgo.gmwcs.graph.Graph
+import ru.itmo.ctlab.virgo.gmwcs.graph.Node
+import java.util.ArrayDeque
+
+private const val EPS = 1e-9
+
+/**
+ * Connectivity-preserving local search over connected subgraphs of [g].
+ * Moves: adding profitable adjacent vertices, choosing the best edge set
+ * for the current vertices, dropping unprofitable branches hanging on
+ * articulation points and non-articulation vertices, and swapping in an
+ * outside vertex which allows to drop some solution vertices.
+ * [fixed] vertex, if any, is never dropped.
+ */
+class LocalSearch(private val g: Graph, solution: Set<Elem>, private val fixed: Node?) {
+    private val nodes = solution.filterIsInstanceTo(mutableSetOf<Node>())
+    private val edges = solution.filterIsInstanceTo(mutableSetOf<Edge>())
+
+    var score = solution.sumByDouble { it.weight }
+        private set
+
+    fun solution(): Set<Elem> = nodes union edges
+
+    /**
+     * Applies improving moves until none is left or [deadline] (in terms of
+     * [System.nanoTime]) passes.
+     */
+    fun run(deadline: Long): Set<Elem> {
+        if (nodes.isEmpty()) return solution()
+        var improved = true
+        while (improved && System.nanoTime() < deadline) {
+            val before = score
+            addVertices()
+            optimizeEdges()
+            while (drop() && System.nanoTime() < deadline) {
+                optimizeEdges()
+            }
+            improved = score > before + EPS || swap(deadline)
+        }
+        return solution()
+    }
+
+    private fun addVertices() {
+        val queue = ArrayDeque(nodes.flatMap { g.neighborListOf(it) }.filter { it !in nodes })
+        while (queue.isNotEmpty()) {
+            val v = queue.poll()
+            if (v in nodes) continue
+            val toS = g.edgesOf(v).filter { g.opposite(v, it) in nodes }
+            if (toS.isEmpty()) continue
+            val chosen = toS.filter { it.weight > 0 }
+                    .ifEmpty { listOf(toS.maxBy { it.weight }!!) }
+            val gain = v.weight + chosen.sumByDouble { it.weight }
+            if (gain > 0) {
+                nodes.add(v)
+                edges.addAll(chosen)
+                score += gain
+                g.neighborListOf(v).filterTo(queue) { it !in nodes }
+            }
+        }
+    }
+
+    /**
+     * Keeps all non-negative edges between solution vertices and the
+     * heaviest negative ones needed for connectivity (Kruskal).
+     */
+    private fun optimizeEdges() {
+        val parent = nodes.associateWithTo(HashMap()) { it }
+        fun find(v: Node): Node {
+            var r = v
+            while (parent[r] != r) r = parent[r]!!
+            var c = v
+            while (parent[c] != r) {
+                val next = parent[c]!!
+                parent[c] = r
+                c = next
+            }
+            return r
+        }
+
+        val candidates = mutableSetOf<Edge>()
+        for (u in nodes) {
+            g.edgesOf(u).filterTo(candidates) { g.opposite(u, it) in nodes }
+        }
+        score -= edges.sumByDouble { it.weight }
+        edges.clear()
+        for (e in candidates.sortedByDescending { it.weight }) {
+            val u = find(g.getEdgeSource(e))
+            val v = find(g.getEdgeTarget(e))
+            if (e.weight >= 0 || u != v) {
+                edges.add(e)
+                parent[u] = v
+            }
+        }
+        score += edges.sumByDouble { it.weight }
+    }
+
+    /**
+     * One pass of DFS over the solution: drops separable subtrees with negative
+     * total weight and, if there are none, the worst non-articulation vertex.
+     * @return true if something was dropped
+     */
+    private fun drop(): Boolean {
+        val adj = HashMap<Node, MutableList<Edge>>()
+        for (e in edges) {
+            adj.getOrPut(g.getEdgeSource(e)) { mutableListOf() }.add(e)
+            if (g.getEdgeTarget(e) != g.getEdgeSource(e))
+                adj.getOrPut(g.getEdgeTarget(e)) { mutableListOf() }.add(e)
+        }
+        val root = fixed?.takeIf { it in nodes } ?: nodes.maxBy { it.weight }!!
+        val disc = HashMap<Node, Int>()
+        val low = HashMap<Node, Int>()
+        val sum = HashMap<Node, Double>()
+        val articulation = mutableSetOf<Node>()
+        val order = mutableListOf<Node>()
+        val finish = HashMap<Node, Int>()
+        val dropped = mutableListOf<Node>()
+        var rootChildren = 0
+
+        class Frame(val v: Node, val parentEdge: Edge?) {
+            val it = (adj[v] ?: mutableListOf<Edge>()).iterator()
+        }
+
+        val stack = ArrayDeque<Frame>()
+        disc[root] = 0
+        low[root] = 0
+        sum[root] = root.weight
+        order.add(root)
+        stack.push(Frame(root, null))
+        while (stack.isNotEmpty()) {
+            val f = stack.peek()
+            if (f.it.hasNext()) {
+                val e = f.it.next()
+                if (e === f.parentEdge) continue
+                val u = g.opposite(f.v, e)
+                val du = disc[u]
+                if (du == null) {
+                    disc[u] = order.size
+                    low[u] = order.size
+                    sum[u] = u.weight + e.weight
+                    order.add(u)
+                    stack.push(Frame(u, e))
+                } else if (du < disc[f.v]!! || u == f.v) {
+                    low[f.v] = minOf(low[f.v]!!, du)
+                    sum[f.v] = sum[f.v]!! + e.weight
+                }
+                continue
+            }
+            stack.pop()
+            finish[f.v] = order.size - 1
+            val p = stack.peek() ?: continue
+            val a = p.v
+            low[a] = minOf(low[a]!!, low[f.v]!!)
+            var contribution = sum[f.v]!!
+            if (low[f.v]!! >= disc[a]!!) {
+                if (a == root) rootChildren++ else articulation.add(a)
+                if (contribution < 0) {
+                    dropped.add(f.v)
+                    contribution = 0.0
+                }
+            }
+            sum[a] = sum[a]!! + contribution
+        }
+        if (rootChildren > 1) articulation.add(root)
+        if (dropped.isEmpty()) {
+            val loss = { v: Node -> v.weight + (adj[v] ?: mutableListOf<Edge>()).sumByDouble { it.weight } }
+            val candidates = nodes.filter { it !== fixed && it !in articulation }
+            if (candidates.isEmpty() || nodes.size == 1) return false
+            val worst = candidates.minBy(loss)!!
+            if (loss(worst) >= 0) return false
+            removeNode(worst)
+            return true
+        }
+        for (c in dropped) {
+            for (i in disc[c]!!..finish[c]!!) {
+                if (order[i] in nodes) removeNode(order[i])
+            }
+        }
+        return true
+    }
+
+    private fun removeNode(v: Node) {
+        nodes.remove(v)
+        score -= v.weight
+        for (e in g.edgesOf(v)) {
+            if (edges.remove(e)) score -= e.weight
+        }
+    }
+
+    /**
+     * Tries outside vertices adjacent to at least two solution vertices:
+     * adds such a vertex with all its edges to the solution and keeps the
+     * result only if the following drops make it better.
+     */
+    private fun swap(deadline: Long): Boolean {
+        val candidates = nodes.flatMap { g.neighborListOf(it) }
+                .filterTo(LinkedHashSet()) { v ->
+                    v !in nodes && g.neighborListOf(v).count { it in nodes } > 1
+                }
+        for (v in candidates) {
+            if (System.nanoTime() >= deadline) return false
+            val savedNodes = HashSet(nodes)
+            val savedEdges = HashSet(edges)
+            val savedScore = score
+            nodes.add(v)
+            score += v.weight
+            for (e in g.edgesOf(v)) {
+                if (g.opposite(v, e) in nodes) {
+                    edges.add(e)
+                    score += e.weight
+                }
+            }
+            optimizeEdges()
+            while (drop()) {
+                optimizeEdges()
+            }
+            if (score > savedScore + EPS) {
+                return true
+            }
+            nodes.clear()
+            nodes.addAll(savedNodes)
+            edges.clear()
+            edges.addAll(savedEdges)
+            score = savedScore
+        }
+        return false
+    }
+}
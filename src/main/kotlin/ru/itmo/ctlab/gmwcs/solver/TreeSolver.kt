@@ -1,12 +1,22 @@
 package ru.itmo.ctlab.gmwcs.solver
 
 import ru.itmo.ctlab.gmwcs.solver.preprocessing.preprocess
+import ru.itmo.ctlab.virgo.TimeLimit
 import ru.itmo.ctlab.virgo.gmwcs.graph.Edge
 import ru.itmo.ctlab.virgo.gmwcs.graph.Elem
 import ru.itmo.ctlab.virgo.gmwcs.graph.Graph
 import ru.itmo.ctlab.virgo.gmwcs.graph.Node
 import ru.itmo.ctlab.virgo.gmwcs.solver.MSTSolver
+import ru.itmo.ctlab.virgo.sgmwcs.solver.AtomicDouble
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.function.Consumer
 import java.util.stream.IntStream
 import kotlin.math.exp
 
@@ -22,6 +32,17 @@ data class D(val root: Node?,
              val withRootD: Double
 )
 
+private const val SEED = 1337L
+
+private const val STARTS = 32
+
+private const val PERTURBATION = 0.3
+
+/**
+ * Local search time in seconds when there is no time limit.
+ */
+private const val LOCAL_SEARCH_TIME = 10.0
+
 fun solve(g: Graph, root: Node, parent: Node?): D {
     val children = if (parent == null) g.neighborListOf(root)
     else g.neighborListOf(root).minus(parent)
@@ -74,23 +95,136 @@ fun mapWeight(w: Double): Double {
 }
 
 fun solveComponents(g: Graph): Set<Elem> {
+    return solveComponents(g, 1, TimeLimit(Double.POSITIVE_INFINITY))
+}
+
+/**
+ * Solves components of [g] concurrently, each from up to [STARTS] roots
+ * with perturbed MST weights, and improves the best tree of each component
+ * with [LocalSearch]. Starts beyond the first one of each component
+ * are skipped when most of [tl] is spent.
+ * If [tl] is finite, restarts followed by [LocalSearch] go on until it runs out
+ * and the best solution is passed to [listener] every [reportInterval] seconds.
+ */
+@JvmOverloads
+fun solveComponents(g: Graph, threads: Int, tl: TimeLimit,
+                    reportInterval: Double = Double.POSITIVE_INFINITY,
+                    listener: Consumer<Set<Elem>>? = null): Set<Elem> {
+    val remaining = tl.remainingTime
+    val now = System.nanoTime()
     preprocess(g)
-    val components = g.connectedSets()
-    val gs = components.map { g.subgraph(it) }
-    return gs.map { solve(it) }
-            .maxBy { it.sumByDouble { it.weight } }
-            .orEmpty()
+    val gs = g.connectedSets().map { g.subgraph(it) }
+    gs.forEach {
+        mergeEdges(it)
+        // Remove edges marked as deleted before concurrent reads
+        it.subgraph(it.vertexSet())
+    }
+    val deadline = if (remaining == Double.POSITIVE_INFINITY) Long.MAX_VALUE
+    else now + (remaining * 1e9).toLong()
+    val startsDeadline = if (remaining == Double.POSITIVE_INFINITY) Long.MAX_VALUE
+    else now + (remaining * 0.8e9).toLong()
+    val executor = Executors.newFixedThreadPool(threads) {
+        // tree DP is recursive
+        Thread(null, it, "tree-solver", 1L shl 28)
+    }
+    val results = gs.map { mutableListOf<Future<Set<Elem>>>() }
+    for (start in 0 until STARTS) {
+        for ((i, c) in gs.withIndex()) {
+            if (start >= c.vertexSet().size) continue
+            results[i].add(executor.submit(Callable<Set<Elem>> {
+                if (start > 0 && System.nanoTime() > startsDeadline) emptySet()
+                else solve(c, Random(SEED + start), start > 0)
+            }))
+        }
+    }
+    // Submitted after all starts, so the futures waited on are already taken by the pool
+    val improved = gs.mapIndexed { i, c ->
+        executor.submit(Callable<Set<Elem>> {
+            val best = results[i].map { it.get() }
+                    .maxBy { it.sumByDouble { it.weight } }
+                    .orEmpty()
+            val lsDeadline = if (deadline == Long.MAX_VALUE)
+                System.nanoTime() + (LOCAL_SEARCH_TIME * 1e9).toLong()
+            else deadline
+            LocalSearch(c, best, null).run(lsDeadline)
+        })
+    }
+    val best = improved.map { it.get() }.toMutableList()
+    if (deadline != Long.MAX_VALUE) {
+        improve(gs, best, executor, threads, deadline, reportInterval, listener)
+    }
+    executor.shutdown()
+    return best.maxBy { it.sumByDouble { it.weight } }.orEmpty()
+}
+
+/**
+ * Anytime mode: a portfolio of [threads] tasks running until [deadline]. Each task
+ * alternates perturbed MST restarts and restarts from a random vertex, both followed
+ * by [LocalSearch], on components which may still contain a solution better than
+ * the best one. Tasks share the best solution of each component through
+ * a lock-free holder and the best score through a lower bound.
+ */
+private fun improve(gs: List<Graph>, best: MutableList<Set<Elem>>, executor: ExecutorService,
+                    threads: Int, deadline: Long, reportInterval: Double, listener: Consumer<Set<Elem>>?) {
+    val bounds = gs.map { c ->
+        c.vertexSet().sumByDouble { maxOf(it.weight, 0.0) } + c.edgeSet().sumByDouble { maxOf(it.weight, 0.0) }
+    }
+    val vertices = gs.map { it.vertexSet().toList() }
+    val incumbents = AtomicReferenceArray(best.toTypedArray())
+    val lb = AtomicDouble(best.fold(0.0) { acc, sol -> maxOf(acc, sol.sumByDouble { it.weight }) })
+    val tasks = (0 until threads).map { t ->
+        executor.submit(Runnable {
+            val random = Random(SEED + STARTS + t)
+            var k = t
+            while (System.nanoTime() < deadline) {
+                val open = gs.indices.filter { bounds[it] > lb.get() }
+                if (open.isEmpty()) break
+                val i = open[random.nextInt(open.size)]
+                val start = if (k++ % 2 == 0) solve(gs[i], random, true)
+                else setOf<Elem>(vertices[i][random.nextInt(vertices[i].size)])
+                val sol = LocalSearch(gs[i], start, null).run(deadline)
+                val score = sol.sumByDouble { it.weight }
+                var current = incumbents.get(i)
+                while (score > current.sumByDouble { it.weight } && !incumbents.compareAndSet(i, current, sol)) {
+                    current = incumbents.get(i)
+                }
+                lb.updateMax(score)
+            }
+        })
+    }
+    var lastReport = System.nanoTime()
+    for (task in tasks) {
+        while (listener != null) {
+            val wait = lastReport + (reportInterval * 1e9).toLong() - System.nanoTime()
+            try {
+                task.get(maxOf(wait, 0L), TimeUnit.NANOSECONDS)
+                break
+            } catch (e: TimeoutException) {
+                lastReport = System.nanoTime()
+                listener.accept((0 until incumbents.length()).map { incumbents.get(it) }
+                        .maxBy { it.sumByDouble { it.weight } }.orEmpty())
+            }
+        }
+        task.get()
+    }
+    for (i in best.indices) {
+        best[i] = incumbents.get(i)
+    }
 }
 
 fun solve(g: Graph): Set<Elem> {
-    val random = Random(1337)
     mergeEdges(g)
+    return solve(g, Random(SEED), false)
+}
+
+private fun solve(g: Graph, random: Random, perturb: Boolean): Set<Elem> {
     val weights = g.edgeSet().associateWith {
         val u: Node = g.getEdgeSource(it)
         val v: Node = g.getEdgeTarget(it)
         val weight = u.weight / g.edgesOf(u).size +
                 +v.weight / g.edgesOf(v).size + it.weight
-        mapWeight(weight)
+        mapWeight(if (perturb) weight * (1 + PERTURBATION * random.nextGaussian())
+        else weight)
     }
     val r = g.vertexSet().toList()[random.nextInt(g.vertexSet().size)]
     val mst = MSTSolver(g, weights, r)
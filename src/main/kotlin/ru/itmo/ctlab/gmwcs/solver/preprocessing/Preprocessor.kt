@@ -81,12 +81,14 @@ val leaves = ReductionSequence(
 val allSteps: Reductions = listOf(isolated, mergeNeg, mergePos, leaves, cns, negE, negV, nvk)
 
 fun isolatedVertices(graph: Graph, toRemove: MutableNodeSet = mutableSetOf()): NodeSet {
-    return graph.vertexSet().filterTo(toRemove) { it.weight <= 0 && graph.degreeOf(it) == 0 }
+    return graph.verticesOfDegree(0).filterTo(toRemove) { it.weight <= 0 }
 }
 
 fun l(graph: Graph, toRemove: MutableNodeSet = mutableSetOf()): NodeSet {
+    val candidates = graph.verticesOfDegree(1).toList()
+    if (candidates.isEmpty()) return toRemove
     val prim = graph.vertexSet().maxBy {it.weight}
-    for (n in graph.vertexSet().filter { graph.degreeOf(it) == 1}) {
+    for (n in candidates) {
         if (n.weight >= prim!!.weight || graph.edgesOf(n).size > 1)
             continue
         val e = graph.edgesOf(n).iterator().next()
@@ -103,7 +105,7 @@ fun l(graph: Graph, toRemove: MutableNodeSet = mutableSetOf()): NodeSet {
 }
 
 fun mergeNegative(graph: Graph, toRemove: MutableNodeSet = mutableSetOf()): NodeSet {
-    for (v in graph.vertexSet().toList()) {
+    for (v in graph.verticesOfDegree(2).toList()) {
         if (v.weight > 0 || graph.degreeOf(v) != 2) {
             continue
         }
@@ -190,7 +192,7 @@ private fun contract(graph: Graph, e: Edge) {
 
 fun negativeVertices(graph: Graph,
                      toRemove: MutableNodeSet = mutableSetOf()): NodeSet {
-    graph.vertexSet().filterTo(toRemove) { vertexTest(graph, it) }
+    graph.verticesOfDegree(2).filterTo(toRemove) { vertexTest(graph, it) }
     return toRemove
 }
 
@@ -208,61 +210,101 @@ private fun vertexTest(graph: Graph, v: Node): Boolean {
 }
 
 fun cns(graph: Graph, toRemove: MutableNodeSet = mutableSetOf()): NodeSet {
+    val ctx = CnsContext(graph, toRemove)
     graph.vertexSet().sorted()
-            .forEach {
-                if (it.weight >= 0 && !toRemove.contains(it))
-                    cnsTest(graph, it, toRemove, 1)
-                    cnsTest(graph, it, toRemove, 2)
-            }
+            .forEach { cnsTest(ctx, it) }
     return toRemove
 }
 
-private fun cnsTest(graph: Graph, v: Node, toRemove: MutableNodeSet, r: Int) {
-    val (w, wSum, wNeighbors) = constructW(graph, v, toRemove, r)
+/**
+ * Tests [v] with radius 1 (positive vertices only) and radius 2,
+ * the second W is grown from the first one.
+ */
+private fun cnsTest(ctx: CnsContext, v: Node) {
+    val w = mutableSetOf(v)
+    var coreSum = minOf(v.weight, 0.0)
+    val testRadiusOne = v.weight >= 0 && !ctx.toRemove.contains(v)
+    coreSum += expandW(ctx, w)
+    if (testRadiusOne)
+        cnsTest(ctx, w, coreSum)
+    coreSum += expandW(ctx, w)
+    cnsTest(ctx, w, coreSum)
+}
+
+private fun cnsTest(ctx: CnsContext, w: NodeSet, coreSum: Double) {
+    var wSum = coreSum
+    val wNeighbors = mutableSetOf<Node>()
+    var wMask = 0L
+    for (u in w) {
+        wMask = wMask or bit(u)
+        for (nb in ctx.neighbors(u)) {
+            if (!w.contains(nb) && !ctx.toRemove.contains(nb)) {
+                wNeighbors.add(nb)
+                wMask = wMask or bit(nb)
+                wSum += minOf(ctx.graph.getEdge(nb, u).weight, 0.0)
+            }
+        }
+    }
     for (u in wNeighbors) {
-        for (cand in graph.neighborListOf(u).asSequence().filter { !w.contains(it) }) {
-            val bestSum = cand.weight + graph.edgesOf(cand)
-                    .sumByDouble { it.weight.coerceAtLeast(0.0) }
-            if (bestSum >= 0) continue
-            val candN = graph.neighborListOf(cand).filter { !w.contains(it) && !toRemove.contains(it) }
-            if (wNeighbors.containsAll(candN) && bestSum < wSum) {
-                toRemove.add(cand)
+        for (cand in ctx.neighbors(u)) {
+            if (w.contains(cand)) continue
+            val bestSum = ctx.bestSum(cand)
+            if (bestSum >= 0 || bestSum >= wSum) continue
+            if (ctx.mask(cand) and (wMask or ctx.removedMask).inv() != 0L) continue
+            val candN = ctx.neighbors(cand).filter { !w.contains(it) && !ctx.toRemove.contains(it) }
+            if (wNeighbors.containsAll(candN)) {
+                ctx.remove(cand)
             }
         }
     }
 }
 
-private data class ConnectedComponent(val w: MutableNodeSet,
-                                      val sum: Double,
-                                      val wNeighbors: MutableNodeSet)
-
-private fun constructW(graph: Graph, n: Node,
-                       toRemove: MutableNodeSet, r: Int): ConnectedComponent {
-    var wSum = minOf(n.weight, 0.0)
-    val w = mutableSetOf(n)
-    for (i in 1..r)
-        for (v in w.toTypedArray()) {
-            for (u in graph.neighborListOf(v)
-                    .filter { !toRemove.contains(it) && !w.contains(it) }) {
-                val edge = graph.getEdge(u, v)
-                val weightSum = edge.weight + u.weight
-                if (weightSum >= 0) {
-                    wSum += minOf(edge.weight, 0.0) + minOf(u.weight, 0.0)
-                    w.add(u)
-                }
-            }
-        }
-    val wNeighbors = mutableSetOf<Node>()
-    for (u in w) {
-        val nbs = graph.neighborListOf(u)
-        for (nb in nbs) {
-            if (!w.contains(nb) && !toRemove.contains(nb)) {
-                wNeighbors.add(nb)
-                wSum += minOf(graph.getEdge(nb, u).weight, 0.0)
+/**
+ * Adds to [w] vertices reachable from it by one non-negative (vertex, edge) step.
+ * @return sum of negative weights added to [w]
+ */
+private fun expandW(ctx: CnsContext, w: MutableNodeSet): Double {
+    var sum = 0.0
+    for (v in w.toTypedArray()) {
+        for (u in ctx.neighbors(v)
+                .filter { !ctx.toRemove.contains(it) && !w.contains(it) }) {
+            val edge = ctx.graph.getEdge(u, v)
+            val weightSum = edge.weight + u.weight
+            if (weightSum >= 0) {
+                sum += minOf(edge.weight, 0.0) + minOf(u.weight, 0.0)
+                w.add(u)
             }
         }
     }
-    return ConnectedComponent(w, wSum, wNeighbors)
+    return sum
+}
+
+private fun bit(v: Node) = 1L shl (v.num and 63)
+
+/**
+ * Neighbourhoods and best sums of vertices for one [cns] pass, the graph
+ * is not modified until the pass ends. Masks are one-bit-per-vertex signatures:
+ * a set can only contain another one if its mask covers the other's mask.
+ */
+private class CnsContext(val graph: Graph, val toRemove: MutableNodeSet) {
+    private val neighbors = mutableMapOf<Node, List<Node>>()
+    private val masks = mutableMapOf<Node, Long>()
+    private val bestSums = mutableMapOf<Node, Double>()
+    var removedMask = toRemove.fold(0L) { m, v -> m or bit(v) }
+        private set
+
+    fun neighbors(v: Node) = neighbors.getOrPut(v) { graph.neighborListOf(v) }
+
+    fun mask(v: Node) = masks.getOrPut(v) { neighbors(v).fold(0L) { m, u -> m or bit(u) } }
+
+    fun bestSum(v: Node) = bestSums.getOrPut(v) {
+        v.weight + graph.edgesOf(v).sumByDouble { it.weight.coerceAtLeast(0.0) }
+    }
+
+    fun remove(v: Node) {
+        toRemove.add(v)
+        removedMask = removedMask or bit(v)
+    }
 }
 
 fun negativeEdges(graph: Graph, toRemove: MutableEdgeSet = mutableSetOf()): EdgeSet {
@@ -292,10 +334,9 @@ fun negativeVertices(k: Int, graph: Graph, toRemove: MutableNodeSet): NodeSet {
     if (k == 2) {
         return negativeVertices(graph, toRemove)
     }
-    graph.vertexSet().toSet().filterTo(toRemove) {
-        it.weight <= 0 && 3 <= graph.degreeOf(it)
-                && graph.degreeOf(it) <= k
-                && nvkTest(graph, it)
+    // nvkTest temporarily removes the candidate, so the buckets are copied first
+    (3..k).flatMap { graph.verticesOfDegree(it).toList() }.filterTo(toRemove) {
+        it.weight <= 0 && nvkTest(graph, it)
     }
     return toRemove
 }
@@ -4,11 +4,13 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import ru.itmo.ctlab.virgo.gmwcs.GMWCSTest;
 import ru.itmo.ctlab.virgo.sgmwcs.SGMWCSTest;
+import ru.itmo.ctlab.virgo.sgmwcs.solver.HeuristicsTest;
+import ru.itmo.ctlab.virgo.treewidth.TreeDecompositionTest;
 
 /**
  * Created by Nikolay Poperechnyi on 30.08.20.
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({GMWCSTest.class, SGMWCSTest.class, MainTest.class})
+@Suite.SuiteClasses({GMWCSTest.class, SGMWCSTest.class, HeuristicsTest.class, TreeDecompositionTest.class, MainTest.class})
 public class VirgoTestSuite {
 }
@@ -4,19 +4,26 @@ import org.junit.Assert;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
+import ru.itmo.ctlab.gmwcs.solver.LocalSearch;
 import ru.itmo.ctlab.virgo.SolverException;
+import ru.itmo.ctlab.virgo.TimeLimit;
 import ru.itmo.ctlab.virgo.gmwcs.graph.Edge;
 import ru.itmo.ctlab.virgo.gmwcs.graph.Elem;
 import ru.itmo.ctlab.virgo.gmwcs.graph.Graph;
 import ru.itmo.ctlab.virgo.gmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.gmwcs.solver.AnnealingSolver;
 import ru.itmo.ctlab.virgo.gmwcs.solver.BicomponentSolver;
+import ru.itmo.ctlab.virgo.gmwcs.solver.TreewidthSolver;
 import ru.itmo.ctlab.virgo.gmwcs.solver.Utils;
+import ru.itmo.ctlab.virgo.treewidth.TreeDecompositionTest;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import static ru.itmo.ctlab.virgo.gmwcs.solver.Utils.sum;
 
@@ -28,6 +35,12 @@ public class GMWCSTest {
     private static final int MAX_SIZE = 16;
     private static final int RANDOM_TESTS = 2200;
     private static final Integer DEBUG_TEST = null;
+    private static final int ANNEALING_STEP = 23;
+    private static final double ANNEALING_TIME = 0.02;
+    private static final int ANNEALING_EXACT_SIZE = 5;
+    private static final long ANNEALING_MOVES = 10_000;
+    private static final int TREEWIDTH_TESTS = 600;
+    private static final int TREEWIDTH_EDGES = 16;
     private List<TestCase> tests;
     private BicomponentSolver solver;
     private ReferenceSolver referenceSolver;
@@ -37,6 +50,8 @@ public class GMWCSTest {
         random = new Random(SEED);
         this.solver = new BicomponentSolver();
         solver.suppressOutput();
+        // the treewidth DP is tested separately, components must reach RLT
+        solver.setTreewidthThreshold(0);
         tests = new ArrayList<>();
         referenceSolver = new ReferenceSolver();
         if (System.getProperty("skipTests") != null) {
@@ -100,6 +115,147 @@ public class GMWCSTest {
         System.out.println();
     }
 
+    @Test
+    public void test04_localSearch() {
+        if (DEBUG_TEST != null) {
+            return;
+        }
+        for (int i = 0; i < tests.size(); i++) {
+            Graph graph = tests.get(i).graph();
+            Node start = randomVertex(graph);
+            Node fixed = random.nextBoolean() ? start : null;
+            Set<Elem> initial = randomSubgraph(graph, start);
+            List<Elem> result = new ArrayList<>(new LocalSearch(graph, initial, fixed)
+                    .run(System.nanoTime() + 1_000_000_000L));
+            checkConnected(graph, result, i);
+            if (fixed != null) {
+                Assert.assertTrue(i + ": fixed vertex was dropped", result.contains(fixed));
+            }
+            Assert.assertTrue(i + ": local search made the solution worse",
+                    sum(result) >= sum(new ArrayList<>(initial)) - 1e-9);
+        }
+    }
+
+    @Test
+    public void test05_annealing() {
+        if (DEBUG_TEST != null) {
+            return;
+        }
+        for (int i = 0; i < tests.size(); i += ANNEALING_STEP) {
+            Graph graph = tests.get(i).graph();
+            AnnealingSolver annealing = new AnnealingSolver();
+            annealing.suppressOutput();
+            if (graph.vertexSet().size() <= ANNEALING_EXACT_SIZE) {
+                annealing.setSteps(ANNEALING_MOVES);
+                checkOptimal(graph, null, annealing.solve(graph), i);
+                continue;
+            }
+            annealing.setTimeLimit(new TimeLimit(ANNEALING_TIME));
+            annealing.setThreadsNum(1 + i % 2);
+            List<Elem> actual = annealing.solve(graph);
+            double optimum = sum(referenceSolver.solve(graph, Collections.emptyList()));
+            double found = sum(actual);
+            Assert.assertTrue(i + ": annealing found " + found + " above the optimum " + optimum,
+                    found <= optimum + 1e-6);
+            if (!actual.isEmpty()) {
+                checkConnected(graph, actual, i);
+            }
+        }
+    }
+
+    @Test
+    public void test06_treewidth() {
+        if (DEBUG_TEST != null) {
+            return;
+        }
+        int solved = 0;
+        for (int i = 0; i < TREEWIDTH_TESTS; i++) {
+            int k = 2 + i % 3;
+            Graph graph = makeKTree(k, i % 2 == 0 ? 1.0 : 0.7);
+            TreewidthSolver dp = TreewidthSolver.forGraph(graph, k);
+            if (i % 2 == 0) {
+                Assert.assertNotNull(i + ": " + k + "-tree isn't solvable", dp);
+                Assert.assertNull(i + ": " + k + "-tree is solvable with smaller width",
+                        TreewidthSolver.forGraph(graph, k - 1));
+            }
+            if (dp == null) {
+                continue;
+            }
+            solved++;
+            dp.suppressOutput();
+            Node root = random.nextBoolean() ? randomVertex(graph) : null;
+            dp.setRoot(root);
+            List<Elem> actual = dp.solve(graph);
+            Assert.assertTrue(i + ": treewidth DP isn't optimal", dp.isSolvedToOptimality());
+            checkOptimal(graph, root, actual, i);
+        }
+        Assert.assertTrue("Too few graphs are solved by the treewidth DP", solved > TREEWIDTH_TESTS / 2);
+    }
+
+    /**
+     * @return random connected subgraph containing <code>start</code>.
+     */
+    private Set<Elem> randomSubgraph(Graph graph, Node start) {
+        Set<Elem> res = new HashSet<>();
+        res.add(start);
+        int size = random.nextInt(graph.vertexSet().size()) + 1;
+        for (int added = 1; added < size; added++) {
+            List<Edge> out = new ArrayList<>();
+            for (Elem elem : res) {
+                if (elem instanceof Node) {
+                    for (Edge e : graph.edgesOf((Node) elem)) {
+                        if (!res.contains(graph.opposite((Node) elem, e))) {
+                            out.add(e);
+                        }
+                    }
+                }
+            }
+            if (out.isEmpty()) {
+                break;
+            }
+            Collections.sort(out);
+            Edge e = out.get(random.nextInt(out.size()));
+            res.add(e);
+            res.add(graph.getEdgeSource(e));
+            res.add(graph.getEdgeTarget(e));
+        }
+        return res;
+    }
+
+    /**
+     * Checks that <code>actual</code> is a connected solution containing <code>root</code>
+     * with the score of the reference solution.
+     */
+    private void checkOptimal(Graph graph, Node root, List<Elem> actual, int num) {
+        List<Elem> expected = referenceSolver.solve(graph,
+                root == null ? Collections.emptyList() : Collections.singletonList(root));
+        Assert.assertEquals(num + ": missed the optimum", sum(expected), sum(actual), 0.1);
+        if (root != null) {
+            Assert.assertTrue(num + ": root is missing", actual.contains(root));
+        }
+        if (!actual.isEmpty()) {
+            checkConnected(graph, actual, num);
+        }
+    }
+
+    private void checkConnected(Graph graph, List<Elem> solution, int num) {
+        Set<Node> nodes = new HashSet<>();
+        Set<Edge> edges = new HashSet<>();
+        for (Elem elem : solution) {
+            if (elem instanceof Node) {
+                nodes.add((Node) elem);
+            } else {
+                edges.add((Edge) elem);
+            }
+        }
+        for (Edge e : edges) {
+            Assert.assertTrue(num + ": edge " + e + " without its ends",
+                    nodes.contains(graph.getEdgeSource(e)) && nodes.contains(graph.getEdgeTarget(e)));
+        }
+        Assert.assertEquals(num + ": solution isn't connected", 1,
+                graph.subgraph(nodes, edges).connectedSets().size());
+    }
+
     private void check(TestCase test, int num) {
         List<Elem> expected = referenceSolver.solve(test.graph(), Collections.emptyList());
         List<Elem> actual = null;
@@ -162,6 +318,27 @@ public class GMWCSTest {
         }
     }
 
+    /**
+     * @return partial k-tree of at most {@link #TREEWIDTH_EDGES} edges, see
+     * {@link TreeDecompositionTest#partialKTree}.
+     */
+    private Graph makeKTree(int k, double keep) {
+        int n = TreeDecompositionTest.kTreeSize(random, k, TREEWIDTH_EDGES);
+        int[][] ends = TreeDecompositionTest.partialKTree(random, n, k, keep);
+        Graph graph = new Graph();
+        Node[] nodes = fillNodes(graph, n);
+        for (int e = 0; e < ends[0].length; e++) {
+            graph.addEdge(nodes[ends[0][e]], nodes[ends[1][e]], new Edge(e + 1, random.nextInt(16) - 8));
+        }
+        return graph;
+    }
+
+    private Node randomVertex(Graph graph) {
+        List<Node> nodes = new ArrayList<>(graph.vertexSet());
+        Collections.sort(nodes);
+        return nodes.get(random.nextInt(nodes.size()));
+    }
+
     private Node[] fillNodes(Graph graph, int size) {
         Node[] nodes = new Node[size];
         for (int j = 0; j < size; j++) {
@@ -43,12 +43,13 @@ public class ReferenceSolver implements Solver {
                 }
             }
 
-            Graph subgraph = graph.subgraph(graph.vertexSet(), currEdges);
-            for (Set<Node> component : subgraph.connectedSets()) {
-                if (component.size() == 1) {
-                    subgraph.removeVertex(component.iterator().next());
-                }
+            // vertices without chosen edges are left out, though a self-loop keeps its vertex
+            Set<Node> currNodes = new LinkedHashSet<>();
+            for (Edge e : currEdges) {
+                currNodes.add(graph.getEdgeSource(e));
+                currNodes.add(graph.getEdgeTarget(e));
             }
+            Graph subgraph = graph.subgraph(currNodes, currEdges);
             List<Set<Node>> connectedSets = subgraph.connectedSets();
             if (connectedSets.size() == 1) {
                 Set<Node> res = connectedSets.iterator().next();
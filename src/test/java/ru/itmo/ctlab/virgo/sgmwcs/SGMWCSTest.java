@@ -7,11 +7,14 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 import ru.itmo.ctlab.virgo.SolverException;
+import ru.itmo.ctlab.virgo.TimeLimit;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.BalancedSeparator;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
 import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
 import ru.itmo.ctlab.virgo.sgmwcs.solver.*;
+import ru.itmo.ctlab.virgo.treewidth.TreeDecompositionTest;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
@@ -27,6 +30,21 @@ public class SGMWCSTest {
     private static final int MAX_SIZE = 15;
     private static final int RANDOM_TESTS = 2200;
     private static final int RLT_MAX_SIZE = 100;
+    private static final int NPVK_TESTS = 500;
+    private static final int ANNEALING_STEP = 23;
+    private static final double ANNEALING_TIME = 0.02;
+    private static final int ANNEALING_EXACT_SIZE = 5;
+    private static final long ANNEALING_MOVES = 10_000;
+    private static final int TREE_TESTS = 1000;
+    private static final int TREE_SHARED = 12;
+    private static final int TREEWIDTH_TESTS = 600;
+    private static final int TREEWIDTH_EDGES = 16;
+    private static final int EXHAUSTIVE_STEP = 5;
+    private static final int EXHAUSTIVE_EXTENDED = 12;
+    private static final int SEPARATOR_TESTS = 300;
+    private static final int SEPARATOR_EDGES = 16;
+    private static final int SEPARATOR_CHECKS = 2000;
+    private static final int SEPARATOR_GRID = 10;
 
     static {
         try {
@@ -48,6 +66,9 @@ public class SGMWCSTest {
         solver = new ComponentSolver(3, 0);
         solver.setPreprocessingLevel(2);
         solver.setLogLevel(0);
+        // exact solvers for small components are tested separately, components must reach RLT
+        solver.setExhaustiveThreshold(0);
+        solver.setTreewidthThreshold(0);
         tests = new ArrayList<>();
         referenceSolver = new ReferenceSolver();
         rltSolver = new RLTSolver(1e-9);
@@ -162,9 +183,13 @@ public class SGMWCSTest {
                 minimizing.setPreprocessingLevel(2);
                 minimizing.setLogLevel(0);
                 minimizing.setThreadsNum(2);
+                minimizing.setExhaustiveThreshold(0);
+                minimizing.setTreewidthThreshold(0);
                 ComponentSolver ordinary = new ComponentSolver(3, 0);
                 ordinary.setPreprocessingLevel(2);
                 ordinary.setLogLevel(0);
+                ordinary.setExhaustiveThreshold(0);
+                ordinary.setTreewidthThreshold(0);
                 List<Unit> ord = ordinary.solve(test.graph(), s);
                 List<Unit> min = minimizing.solve(test.graph(), s);
                 double delta = s.sum(ord) - s.sum(min);
@@ -223,6 +248,246 @@ public class SGMWCSTest {
         }
     }
 
+    @Test
+    public void test07_npvk() {
+        tests.clear();
+        for (int i = 0; i < NPVK_TESTS; i++) {
+            int size = 6 + random.nextInt(5);
+            tests.add(makeConnectedGraph(size, random.nextInt(4), 2));
+        }
+        for (int num = 0; num < tests.size(); num++) {
+            TestCase test = tests.get(num);
+            try {
+                double basic = sum(exactSolver(2, 1).solve(test.graph(), test.signals()), test.signals());
+                for (int threads = 1; threads <= 2; threads++) {
+                    ComponentSolver npvk = exactSolver(3, threads);
+                    double actual = sum(npvk.solve(test.graph(), test.signals()), test.signals());
+                    Assert.assertEquals(num + ": npvk changed the optimum with " + threads + " threads",
+                            basic, actual, 0.1);
+                }
+            } catch (SolverException e) {
+                Assert.fail(num + "\n" + e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void test08_annealing() {
+        for (int num = 0; num < tests.size(); num += ANNEALING_STEP) {
+            TestCase test = tests.get(num);
+            Graph graph = test.graph();
+            AnnealingSolver annealing = new AnnealingSolver();
+            annealing.setPreprocessingLevel(2);
+            // a single island with a fixed number of moves doesn't depend on the load of the machine
+            if (graph.vertexSet().size() <= ANNEALING_EXACT_SIZE) {
+                annealing.setSteps(ANNEALING_MOVES);
+                checkOptimal(graph, test.signals(), null, annealing.solve(graph, test.signals()), num);
+            } else {
+                annealing.setTimeLimit(new TimeLimit(ANNEALING_TIME));
+                annealing.setThreadsNum(1 + num % 2);
+                checkBelowOptimum(graph, test.signals(), null, annealing.solve(graph, test.signals()), num);
+            }
+        }
+    }
+
+    @Test
+    public void test09_tree() {
+        for (int num = 0; num < TREE_TESTS; num++) {
+            TestCase test = makeTree(random.nextInt(MAX_SIZE - 1) + 2);
+            Graph graph = test.graph();
+            Signals signals = test.signals();
+            // every fourth tree has more shared signals than the DP keeps
+            addSharedSignals(graph, signals, num % 4 == 0 ? TREE_SHARED : random.nextInt(4));
+            boolean exact = TreeSolver.isSolvable(graph, signals);
+            if (num % 4 == 0) {
+                Assert.assertFalse(num + ": too many shared signals to be solved exactly", exact);
+            }
+            Node root = random.nextBoolean() ? randomVertex(graph) : null;
+            TreeSolver tree = new TreeSolver();
+            tree.setRoot(root);
+            List<Unit> actual = tree.solve(graph, signals);
+            Assert.assertEquals(num + ": wrong optimality flag", exact, tree.isSolvedToOptimality());
+            if (exact) {
+                checkOptimal(graph, signals, root, actual, num);
+            } else {
+                checkBelowOptimum(graph, signals, root, actual, num);
+            }
+        }
+    }
+
+    @Test
+    public void test10_treewidth() {
+        int solved = 0;
+        for (int num = 0; num < TREEWIDTH_TESTS; num++) {
+            int k = 2 + num % 3;
+            Signals signals = new Signals();
+            Graph graph = makeKTree(k, num % 2 == 0 ? 1.0 : 0.7, signals);
+            addSharedSignals(graph, signals, random.nextInt(4));
+            TreewidthSolver dp = TreewidthSolver.forGraph(graph, signals, k);
+            if (num % 2 == 0) {
+                Assert.assertNotNull(num + ": " + k + "-tree isn't solvable", dp);
+                Assert.assertNull(num + ": " + k + "-tree is solvable with smaller width",
+                        TreewidthSolver.forGraph(graph, signals, k - 1));
+            }
+            if (dp == null) {
+                continue;
+            }
+            solved++;
+            Node root = random.nextBoolean() ? randomVertex(graph) : null;
+            dp.setRoot(root);
+            List<Unit> actual = dp.solve(graph, signals);
+            Assert.assertTrue(num + ": treewidth DP isn't optimal", dp.isSolvedToOptimality());
+            checkOptimal(graph, signals, root, actual, num);
+        }
+        Assert.assertTrue("Too few graphs are solved by the treewidth DP", solved > TREEWIDTH_TESTS / 2);
+    }
+
+    @Test
+    public void test11_exhaustive() {
+        for (int num = 0; num < tests.size(); num += EXHAUSTIVE_STEP) {
+            TestCase test = tests.get(num);
+            Graph graph = test.graph();
+            Signals signals = test.signals();
+            if (num % 3 == 0 && !graph.edgeSet().isEmpty() && graph.edgeSet().size() <= EXHAUSTIVE_EXTENDED) {
+                int next = graph.edgeSet().stream().mapToInt(Unit::getNum).max().getAsInt() + 1;
+                Edge origin = graph.edgeSet().iterator().next();
+                Edge parallel = new Edge(next);
+                graph.addEdge(graph.getEdgeSource(origin), graph.getEdgeTarget(origin), parallel);
+                signals.add(parallel, random.nextInt(signals.size()));
+                Edge loop = new Edge(next + 1);
+                Node v = randomVertex(graph);
+                graph.addEdge(v, v, loop);
+                signals.add(loop, random.nextInt(signals.size()));
+            }
+            if (graph.vertexSet().size() > 1) {
+                addSharedSignals(graph, signals, random.nextInt(4));
+            }
+            Node root = random.nextBoolean() ? randomVertex(graph) : null;
+            Assert.assertTrue(num + ": not solvable", ExhaustiveSolver.isSolvable(graph, signals, ExhaustiveSolver.MAX_EDGES));
+            ExhaustiveSolver exhaustive = new ExhaustiveSolver();
+            exhaustive.setRoot(root);
+            List<Unit> actual = exhaustive.solve(graph, signals);
+            Assert.assertTrue(num + ": exhaustive search isn't optimal", exhaustive.isSolvedToOptimality());
+            checkOptimal(graph, signals, root, actual, num);
+        }
+    }
+
+    @Test
+    public void test12_separator() throws SolverException {
+        int split = 0;
+        for (int num = 0; num < SEPARATOR_TESTS; num++) {
+            int rows = 2 + random.nextInt(2);
+            int cols = rows == 2 ? 2 + random.nextInt(5) : 3;
+            int gridEdges = rows * (cols - 1) + cols * (rows - 1);
+            TestCase test = makeGrid(rows, cols, random.nextInt(SEPARATOR_EDGES - gridEdges + 1));
+            Graph graph = test.graph();
+            Signals signals = test.signals();
+            addSharedSignals(graph, signals, random.nextInt(3));
+            int size = 1 + num % 3;
+            if (!new BalancedSeparator(graph, size).separator().isEmpty()) {
+                split++;
+            }
+            // no preprocessing, so 2-connected components reach the separator
+            ComponentSolver solver = exactSolver(0, 1 + num % 3);
+            solver.setSeparatorSize(size);
+            List<Unit> actual = solver.solve(graph, signals);
+            Assert.assertTrue(num + ": not solved to optimality", solver.isSolvedToOptimality());
+            checkOptimal(graph, signals, null, actual, num);
+        }
+        Assert.assertTrue("Too few graphs are split by a separator", split > SEPARATOR_TESTS / 2);
+    }
+
+    @Test
+    public void test13_balancedSeparator() {
+        int found = 0;
+        for (int num = 0; num < SEPARATOR_CHECKS; num++) {
+            int rows = 2 + random.nextInt(SEPARATOR_GRID - 1);
+            int cols = 2 + random.nextInt(SEPARATOR_GRID - 1);
+            Graph graph = makeGrid(rows, cols, random.nextInt(rows * cols / 4 + 1)).graph();
+            List<Node> separator = new BalancedSeparator(graph, 1 + random.nextInt(SEPARATOR_GRID)).separator();
+            if (separator.isEmpty()) {
+                continue;
+            }
+            found++;
+            Set<Node> rest = new HashSet<>(graph.vertexSet());
+            rest.removeAll(separator);
+            Assert.assertEquals(num + ": separator has repeated vertices",
+                    graph.vertexSet().size() - separator.size(), rest.size());
+            List<Set<Node>> parts = graph.subgraph(rest).connectedSets();
+            Assert.assertTrue(num + ": separator doesn't disconnect the graph", parts.size() > 1);
+            // parts may be distributed between the sides in any way
+            int n = graph.vertexSet().size();
+            int minSide = (int) Math.ceil(0.1 * n);
+            boolean[] sums = new boolean[rest.size() + 1];
+            sums[0] = true;
+            for (Set<Node> part : parts) {
+                for (int s = rest.size(); s >= part.size(); s--) {
+                    sums[s] |= sums[s - part.size()];
+                }
+            }
+            boolean balanced = false;
+            for (int s = minSide; s <= rest.size() - minSide; s++) {
+                balanced |= sums[s];
+            }
+            Assert.assertTrue(num + ": a side has less than 10% of " + n + " vertices", balanced);
+        }
+        Assert.assertTrue("Too few separators are found", found > SEPARATOR_CHECKS / 2);
+    }
+
+    /**
+     * Checks that <code>actual</code> is a connected solution containing <code>root</code>
+     * with the score of the reference solution.
+     */
+    private void checkOptimal(Graph graph, Signals signals, Node root, List<Unit> actual, int num) {
+        Assert.assertEquals(num + ": missed the optimum",
+                sum(reference(graph, signals, root), signals), sum(actual, signals), 0.1);
+        checkFeasible(graph, root, actual, num);
+    }
+
+    private void checkBelowOptimum(Graph graph, Signals signals, Node root, List<Unit> actual, int num) {
+        double optimum = sum(reference(graph, signals, root), signals);
+        double found = sum(actual, signals);
+        Assert.assertTrue(num + ": found " + found + " above the optimum " + optimum, found <= optimum + 1e-6);
+        checkFeasible(graph, root, actual, num);
+    }
+
+    private List<Unit> reference(Graph graph, Signals signals, Node root) {
+        return referenceSolver.solve(graph, signals,
+                root == null ? Collections.emptyList() : Collections.singletonList(root));
+    }
+
+    private static void checkFeasible(Graph graph, Node root, List<Unit> actual, int num) {
+        if (root != null) {
+            Assert.assertTrue(num + ": root is missing", actual.contains(root));
+        }
+        if (actual.isEmpty()) {
+            return;
+        }
+        Set<Node> nodes = Utils.nodes(actual);
+        for (Edge e : Utils.edges(actual)) {
+            Assert.assertTrue(num + ": edge " + e + " without its ends",
+                    nodes.contains(graph.getEdgeSource(e)) && nodes.contains(graph.getEdgeTarget(e)));
+        }
+        Assert.assertEquals(num + ": solution isn't connected", 1, graph.subgraph(actual).connectedSets().size());
+    }
+
+    private Node randomVertex(Graph graph) {
+        List<Node> nodes = new ArrayList<>(graph.vertexSet());
+        Collections.sort(nodes);
+        return nodes.get(random.nextInt(nodes.size()));
+    }
+
+    /**
+     * @return solver which doesn't need CPLEX for graphs of at most {@link ExhaustiveSolver#MAX_EDGES} edges.
+     */
+    private ComponentSolver exactSolver(int preprocessLevel, int threads) {
+        ComponentSolver solver = new ComponentSolver(3, 0);
+        solver.setPreprocessingLevel(preprocessLevel);
+        solver.setThreadsNum(threads);
+        solver.setExhaustiveThreshold(ExhaustiveSolver.MAX_EDGES);
+        solver.setLogLevel(0);
+        return solver;
+    }
 
     private void check(TestCase test, int num, Solver refSolver) {
         List<Unit> expected = null, actual = null;
@@ -295,27 +560,134 @@ public class SGMWCSTest {
             }
             Collections.sort(edgesCount);
             for (int count : edgesCount) {
-                Graph graph = new Graph();
-                Map<Node, Double> nodes = fillNodes(graph, size);
-                List<Integer> seq = new ArrayList<>();
-                for (int j = 0; j < size; j++) {
-                    seq.add(j);
+                tests.add(makeConnectedGraph(size, count, 0));
+            }
+        }
+    }
+
+    /**
+     * @param hubs number of heavy negative vertices joined to 3 or 4 vertices of the graph,
+     *             which are the candidates to be removed by npvk.
+     */
+    private TestCase makeConnectedGraph(int size, int count, int hubs) {
+        Graph graph = new Graph();
+        Map<Node, Double> nodes = fillNodes(graph, size);
+        List<Integer> seq = new ArrayList<>();
+        for (int j = 0; j < size; j++) {
+            seq.add(j);
+        }
+        Collections.shuffle(seq, random);
+        Node[] nodesArray = nodes.keySet().toArray(new Node[0]);
+        Arrays.sort(nodesArray);
+        Map<Edge, Double> edges = new HashMap<>();
+        for (int j = 0; j < size - 1; j++) {
+            double weight = random.nextInt(16) - 8;
+            Edge edge = new Edge(j + 1);
+            graph.addEdge(nodesArray[seq.get(j)], nodesArray[seq.get(j + 1)], edge);
+            edges.put(edge, weight);
+        }
+        fillEdgesRandomly(graph, count, nodesArray, edges, size);
+        for (int h = 0; h < hubs; h++) {
+            Node hub = new Node(size + h + 1);
+            graph.addVertex(hub);
+            nodes.put(hub, -10.0 - random.nextInt(10));
+            List<Node> neighbors = new ArrayList<>(Arrays.asList(nodesArray));
+            Collections.shuffle(neighbors, random);
+            int degree = 3 + random.nextInt(2);
+            for (int j = 0; j < degree; j++) {
+                Edge edge = new Edge(size + count + 4 * h + j);
+                graph.addEdge(hub, neighbors.get(j), edge);
+                edges.put(edge, -1.0 - random.nextInt(4));
+            }
+        }
+        Map<Unit, Double> weights = new HashMap<>();
+        weights.putAll(nodes);
+        weights.putAll(edges);
+        return new TestCase(graph, weights, random);
+    }
+
+    private TestCase makeTree(int size) {
+        Graph graph = new Graph();
+        Map<Node, Double> nodes = fillNodes(graph, size);
+        Node[] nodesArray = nodes.keySet().toArray(new Node[0]);
+        Arrays.sort(nodesArray);
+        Map<Unit, Double> weights = new HashMap<>(nodes);
+        for (int j = 1; j < size; j++) {
+            Edge edge = new Edge(j);
+            graph.addEdge(nodesArray[j], nodesArray[random.nextInt(j)], edge);
+            weights.put(edge, random.nextInt(16) - 8.0);
+        }
+        return new TestCase(graph, weights, random);
+    }
+
+    /**
+     * @return 2-connected grid of <code>rows</code> by <code>cols</code> vertices
+     * with <code>chords</code> random edges added.
+     */
+    private TestCase makeGrid(int rows, int cols, int chords) {
+        Graph graph = new Graph();
+        Map<Node, Double> nodes = fillNodes(graph, rows * cols);
+        Node[] nodesArray = nodes.keySet().toArray(new Node[0]);
+        Arrays.sort(nodesArray);
+        Map<Edge, Double> edges = new HashMap<>();
+        int num = 1;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                Node v = nodesArray[i * cols + j];
+                if (j + 1 < cols) {
+                    Edge edge = new Edge(num++);
+                    graph.addEdge(v, nodesArray[i * cols + j + 1], edge);
+                    edges.put(edge, random.nextInt(16) - 8.0);
                 }
-                Collections.shuffle(seq, random);
-                Node[] nodesArray = nodes.keySet().toArray(new Node[0]);
-                Arrays.sort(nodesArray);
-                Map<Edge, Double> edges = new HashMap<>();
-                for (int j = 0; j < size - 1; j++) {
-                    double weight = random.nextInt(16) - 8;
-                    Edge edge = new Edge(j + 1);
-                    graph.addEdge(nodesArray[seq.get(j)], nodesArray[seq.get(j + 1)], edge);
-                    edges.put(edge, weight);
+                if (i + 1 < rows) {
+                    Edge edge = new Edge(num++);
+                    graph.addEdge(v, nodesArray[(i + 1) * cols + j], edge);
+                    edges.put(edge, random.nextInt(16) - 8.0);
                 }
-                fillEdgesRandomly(graph, count, nodesArray, edges, size);
-                Map<Unit, Double> weights = new HashMap<>();
-                weights.putAll(nodes);
-                weights.putAll(edges);
-                tests.add(new TestCase(graph, weights, random));
+            }
+        }
+        fillEdgesRandomly(graph, chords, nodesArray, edges, num);
+        Map<Unit, Double> weights = new HashMap<>();
+        weights.putAll(nodes);
+        weights.putAll(edges);
+        return new TestCase(graph, weights, random);
+    }
+
+    /**
+     * @return partial k-tree of at most {@link #TREEWIDTH_EDGES} edges, see
+     * {@link TreeDecompositionTest#partialKTree}. Every unit gets a signal of its own.
+     */
+    private Graph makeKTree(int k, double keep, Signals signals) {
+        int n = TreeDecompositionTest.kTreeSize(random, k, TREEWIDTH_EDGES);
+        int[][] ends = TreeDecompositionTest.partialKTree(random, n, k, keep);
+        Graph graph = new Graph();
+        Node[] nodes = new Node[n];
+        for (int v = 0; v < n; v++) {
+            nodes[v] = new Node(v + 1);
+            graph.addVertex(nodes[v]);
+            signals.addAndSetWeight(nodes[v], random.nextInt(16) - 8.0);
+        }
+        for (int e = 0; e < ends[0].length; e++) {
+            Edge edge = new Edge(e + 1);
+            graph.addEdge(nodes[ends[0][e]], nodes[ends[1][e]], edge);
+            signals.addAndSetWeight(edge, random.nextInt(16) - 8.0);
+        }
+        return graph;
+    }
+
+    /**
+     * Adds <code>count</code> nonzero signals, each shared by at least two units.
+     */
+    private void addSharedSignals(Graph graph, Signals signals, int count) {
+        List<Unit> units = new ArrayList<>(graph.vertexSet());
+        units.addAll(graph.edgeSet());
+        for (int i = 0; i < count; i++) {
+            int weight = random.nextInt(16) - 8;
+            int sig = signals.addSignal(weight >= 0 ? weight + 1 : weight);
+            Collections.shuffle(units, random);
+            int holders = 2 + random.nextInt(units.size() - 1);
+            for (Unit u : units.subList(0, holders)) {
+                signals.add(u, sig);
             }
         }
     }
@@ -0,0 +1,154 @@
+package ru.itmo.ctlab.virgo.sgmwcs.solver;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import ru.itmo.ctlab.virgo.sgmwcs.TestCase;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Edge;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Graph;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Node;
+import ru.itmo.ctlab.virgo.sgmwcs.graph.Unit;
+
+import java.util.*;
+
+import static ru.itmo.ctlab.virgo.sgmwcs.solver.Utils.sum;
+
+/**
+ * Checks that primal heuristics keep solutions connected and containing the fixed vertex:
+ * random graphs with parallel edges, self-loops and shared signals, solutions from random starts.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HeuristicsTest {
+    private static final int SEED = 20160309;
+    private static final int TESTS = 1000;
+    private static final int MAX_SIZE = 30;
+    private static final int PORTFOLIO_STEP = 3;
+    private static final long PORTFOLIO_TIME = 20_000_000L;
+
+    private final Random random = new Random(SEED);
+    private final List<TestCase> tests = new ArrayList<>();
+
+    public HeuristicsTest() {
+        for (int i = 0; i < TESTS; i++) {
+            int size = random.nextInt(MAX_SIZE) + 1;
+            tests.add(makeConnectedGraph(size, random.nextInt(2 * size)));
+        }
+    }
+
+    @Test
+    public void test01_localSearch() {
+        for (int num = 0; num < tests.size(); num++) {
+            TestCase test = tests.get(num);
+            Node start = randomVertex(test.graph());
+            Node fixed = random.nextBoolean() ? start : null;
+            List<Unit> initial = randomSubgraph(test.graph(), start);
+            LocalSearch ls = new LocalSearch(test.graph(), test.signals(), initial, fixed);
+            List<Unit> result = ls.run(System.nanoTime() + 1_000_000_000L);
+            checkSolution(test, result, fixed, num);
+            Assert.assertEquals(num + ": wrong score", sum(result, test.signals()), ls.score(), 1e-6);
+            Assert.assertTrue(num + ": local search made the solution worse",
+                    ls.score() >= sum(initial, test.signals()) - 1e-6);
+            ls.perturb(random, 0.3);
+            checkSolution(test, ls.solution(), fixed, num);
+        }
+    }
+
+    @Test
+    public void test02_portfolio() throws InterruptedException {
+        for (int num = 0; num < tests.size(); num += PORTFOLIO_STEP) {
+            TestCase test = tests.get(num);
+            Node root = random.nextBoolean() ? randomVertex(test.graph()) : null;
+            List<List<Unit>> offered = Collections.synchronizedList(new ArrayList<>());
+            Incumbent incumbent = new Incumbent(new AtomicDouble(Double.NEGATIVE_INFINITY)) {
+                @Override
+                public boolean offer(List<Unit> solution, double score, boolean isOptimal, String source) {
+                    offered.add(new ArrayList<>(solution));
+                    return super.offer(solution, score, isOptimal, source);
+                }
+            };
+            List<Unit> initial = randomSubgraph(test.graph(), root == null ? randomVertex(test.graph()) : root);
+            double start = sum(initial, test.signals());
+            incumbent.offer(initial, start);
+            offered.clear();
+            new Portfolio(test.graph(), test.signals(), root, incumbent, new AtomicDouble(Double.NEGATIVE_INFINITY))
+                    .run(1 + num % 4, num, System.nanoTime() + PORTFOLIO_TIME);
+            for (List<Unit> solution : offered) {
+                checkSolution(test, solution, root, num);
+            }
+            checkSolution(test, incumbent.solution(), root, num);
+            Assert.assertEquals(num + ": wrong score", sum(incumbent.solution(), test.signals()),
+                    incumbent.score(), 1e-6);
+            Assert.assertTrue(num + ": portfolio made the solution worse", incumbent.score() >= start - 1e-6);
+        }
+    }
+
+    private static void checkSolution(TestCase test, List<Unit> solution, Node fixed, int num) {
+        Graph graph = test.graph();
+        Assert.assertFalse(num + ": empty solution", solution.isEmpty());
+        Set<Node> nodes = Utils.nodes(solution);
+        Set<Edge> edges = Utils.edges(solution);
+        for (Edge e : edges) {
+            Assert.assertTrue(num + ": edge " + e + " without its ends",
+                    nodes.contains(graph.getEdgeSource(e)) && nodes.contains(graph.getEdgeTarget(e)));
+        }
+        Assert.assertEquals(num + ": solution isn't connected", 1,
+                graph.subgraph(nodes, edges).connectedSets().size());
+        if (fixed != null) {
+            Assert.assertTrue(num + ": fixed vertex was dropped", nodes.contains(fixed));
+        }
+    }
+
+    private Node randomVertex(Graph graph) {
+        List<Node> nodes = new ArrayList<>(graph.vertexSet());
+        Collections.sort(nodes);
+        return nodes.get(random.nextInt(nodes.size()));
+    }
+
+    /**
+     * @return random connected subgraph containing <code>start</code>.
+     */
+    private List<Unit> randomSubgraph(Graph graph, Node start) {
+        Set<Unit> res = new LinkedHashSet<>();
+        res.add(start);
+        int size = random.nextInt(graph.vertexSet().size()) + 1;
+        for (int added = 1; added < size; added++) {
+            List<Edge> out = new ArrayList<>();
+            for (Node v : Utils.nodes(res)) {
+                for (Edge e : graph.edgesOf(v)) {
+                    if (!res.contains(graph.getOppositeVertex(v, e))) {
+                        out.add(e);
+                    }
+                }
+            }
+            if (out.isEmpty()) {
+                break;
+            }
+            Collections.sort(out);
+            Edge e = out.get(random.nextInt(out.size()));
+            res.add(e);
+            res.add(graph.getEdgeSource(e));
+            res.add(graph.getEdgeTarget(e));
+        }
+        return new ArrayList<>(res);
+    }
+
+    private TestCase makeConnectedGraph(int size, int count) {
+        Graph graph = new Graph();
+        Map<Unit, Double> weights = new HashMap<>();
+        Node[] nodes = new Node[size];
+        for (int i = 0; i < size; i++) {
+            nodes[i] = new Node(i + 1);
+            graph.addVertex(nodes[i]);
+            weights.put(nodes[i], random.nextInt(16) - 8.0);
+        }
+        for (int i = 1; i < size + count; i++) {
+            int u = i < size ? i : random.nextInt(size);
+            int v = i < size ? random.nextInt(i) : random.nextInt(size);
+            Edge edge = new Edge(i);
+            graph.addEdge(nodes[u], nodes[v], edge);
+            weights.put(edge, random.nextInt(16) - 8.0);
+        }
+        return new TestCase(graph, weights, random);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.itmo.ctlab.virgo.treewidth;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.*;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TreeDecompositionTest {
+    private static final int SEED = 20160309;
+    private static final int TESTS = 2000;
+    private static final int MAX_SIZE = 40;
+    private static final int MAX_WIDTH = 4;
+
+    private final Random random = new Random(SEED);
+
+    @Test
+    public void test01_kTrees() {
+        for (int num = 0; num < TESTS; num++) {
+            int k = 1 + random.nextInt(MAX_WIDTH);
+            int n = k + 1 + random.nextInt(MAX_SIZE - k);
+            int[][] edges = partialKTree(random, n, k, 1.0);
+            TreeDecomposition td = TreeDecomposition.minFill(n, edges[0], edges[1], k);
+            Assert.assertNotNull(num + ": no decomposition of a " + k + "-tree", td);
+            Assert.assertEquals(num + ": wrong width", k, td.width());
+            check(td, n, edges, num);
+            // a k-tree contains a clique of k + 1 vertices
+            Assert.assertNull(num + ": width is below " + k,
+                    TreeDecomposition.minFill(n, edges[0], edges[1], k - 1));
+        }
+    }
+
+    @Test
+    public void test02_partialKTrees() {
+        for (int num = 0; num < TESTS; num++) {
+            int k = 1 + random.nextInt(MAX_WIDTH);
+            int n = 1 + random.nextInt(MAX_SIZE);
+            int[][] edges = partialKTree(random, n, k, random.nextDouble());
+            int maxWidth = random.nextInt(MAX_WIDTH + 1);
+            TreeDecomposition td = TreeDecomposition.minFill(n, edges[0], edges[1], maxWidth);
+            if (td != null) {
+                Assert.assertTrue(num + ": width " + td.width() + " exceeds " + maxWidth, td.width() <= maxWidth);
+                check(td, n, edges, num);
+            }
+        }
+    }
+
+    /**
+     * Checks that every edge is in a bag and bags of every vertex form a subtree.
+     */
+    private static void check(TreeDecomposition td, int n, int[][] edges, int num) {
+        Set<Integer> eliminated = new HashSet<>();
+        for (int v : td.order) {
+            Assert.assertTrue(num + ": vertex eliminated twice", eliminated.add(v));
+        }
+        Assert.assertEquals(num + ": not all vertices are eliminated", n, eliminated.size());
+        for (int e = 0; e < edges[0].length; e++) {
+            int u = edges[0][e], v = edges[1][e];
+            int first = td.position[u] < td.position[v] ? u : v;
+            Assert.assertTrue(num + ": edge " + u + "-" + v + " isn't covered",
+                    contains(td.bags[first], u) && contains(td.bags[first], v));
+        }
+        for (int v = 0; v < n; v++) {
+            Assert.assertEquals(num + ": bag of " + v + " doesn't start with it", v, td.bags[v][0]);
+            int p = td.parent[v];
+            for (int i = 1; i < td.bags[v].length; i++) {
+                Assert.assertTrue(num + ": bag of " + v + " isn't covered by its parent",
+                        p >= 0 && contains(td.bags[p], td.bags[v][i]));
+                Assert.assertTrue(num + ": neighbour of " + v + " is eliminated before it",
+                        td.position[td.bags[v][i]] > td.position[v]);
+            }
+        }
+    }
+
+    private static boolean contains(int[] bag, int v) {
+        for (int u : bag) {
+            if (u == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return random number of vertices of a k-tree with at most <code>maxEdges</code> edges,
+     * as a k-tree of n vertices has <code>k * n - k * (k + 1) / 2</code> of them.
+     */
+    public static int kTreeSize(Random random, int k, int maxEdges) {
+        return k + 1 + random.nextInt((maxEdges + k * (k + 1) / 2) / k - k);
+    }
+
+    /**
+     * Random k-tree: a clique of <code>k + 1</code> vertices grown by vertices adjacent
+     * to a random k-clique. Each edge is then kept with probability <code>keep</code>,
+     * so the graph may become disconnected.
+     *
+     * @return ends of edges, vertices are numbered from 0.
+     */
+    public static int[][] partialKTree(Random random, int n, int k, double keep) {
+        List<int[]> edges = new ArrayList<>();
+        List<int[]> cliques = new ArrayList<>();
+        int first = Math.min(n, k + 1);
+        for (int v = 0; v < first; v++) {
+            for (int u = 0; u < v; u++) {
+                edges.add(new int[]{u, v});
+            }
+        }
+        if (n > k) {
+            for (int skip = 0; skip <= k; skip++) {
+                int[] clique = new int[k];
+                for (int v = 0, i = 0; v <= k; v++) {
+                    if (v != skip) {
+                        clique[i++] = v;
+                    }
+                }
+                cliques.add(clique);
+            }
+        }
+        for (int v = k + 1; v < n; v++) {
+            int[] clique = cliques.get(random.nextInt(cliques.size()));
+            for (int u : clique) {
+                edges.add(new int[]{u, v});
+            }
+            for (int i = 0; i < k; i++) {
+                int[] next = clique.clone();
+                next[i] = v;
+                cliques.add(next);
+            }
+        }
+        edges.removeIf(e -> random.nextDouble() >= keep);
+        int[][] res = new int[2][edges.size()];
+        for (int e = 0; e < edges.size(); e++) {
+            res[0][e] = edges.get(e)[0];
+            res[1][e] = edges.get(e)[1];
+        }
+        return res;
+    }
+}